@@ -1,13 +1,26 @@
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
 import io.sphere.client.shop.SphereClient;
 import play.Application;
+import play.Configuration;
 import services.*;
 import sphere.Sphere;
 
+import javax.inject.Named;
+import javax.inject.Singleton;
+
 
 public class ProductionModule extends AbstractModule {
+    private static final String GLOBAL_CONTAINER = "globalInfo";
+    private static final int INITIAL_ORDER_NUMBER = 10000;
+    private static final int INITIAL_CUSTOMER_NUMBER = 1000;
+    private static final int DEFAULT_NUMBER_BLOCK_SIZE = 20;
+    private static final String STUB_PAYMENT_GATEWAY = "stub";
+
+    private final Configuration config;
 
     public ProductionModule(final Application application) {
+        this.config = application.configuration();
     }
 
     @Override
@@ -18,9 +31,27 @@ public class ProductionModule extends AbstractModule {
         bind(CustomerService.class).to(CustomerServiceImpl.class);
         bind(CustomObjectService.class).to(CustomObjectServiceImpl.class);
         bind(OrderService.class).to(OrderServiceImpl.class);
+        if (STUB_PAYMENT_GATEWAY.equals(config.getString("shop.payments.gateway"))) {
+            bind(PaymentGateway.class).to(StubPaymentGateway.class);
+        } else {
+            bind(PaymentGateway.class).to(PaymillPaymentGateway.class);
+        }
         bind(ProductService.class).to(ProductServiceImpl.class);
-        bind(ShippingMethodService.class).to(ShippingMethodServiceImpl.class);
+        bind(RecommendationService.class).to(RecommendationServiceImpl.class);
+        bind(ShippingMethodService.class).to(ShippingMethodServiceImpl.class).asEagerSingleton();
         bind(Sphere.class).toInstance(Sphere.getInstance());
         bind(SphereClient.class).toInstance(Sphere.getInstance().client());
     }
+
+    @Provides @Singleton @Named(CheckoutService.ORDER_NUMBERS)
+    NumberSequence provideOrderNumbers(final CustomObjectService customObjectService) {
+        return BlockNumberSequence.of(customObjectService, GLOBAL_CONTAINER, "lastOrderNumber", INITIAL_ORDER_NUMBER,
+                config.getInt("shop.orders.numbers.blockSize", DEFAULT_NUMBER_BLOCK_SIZE));
+    }
+
+    @Provides @Singleton @Named(CustomerService.CUSTOMER_NUMBERS)
+    NumberSequence provideCustomerNumbers(final CustomObjectService customObjectService) {
+        return BlockNumberSequence.of(customObjectService, GLOBAL_CONTAINER, "lastCustomerNumber", INITIAL_CUSTOMER_NUMBER,
+                config.getInt("shop.customers.numbers.blockSize", DEFAULT_NUMBER_BLOCK_SIZE));
+    }
 }
@@ -21,8 +21,6 @@ import sphere.ShopController;
 
 import java.util.*;
 
-import utils.AsyncUtils;
-
 import static java.util.Arrays.asList;
 import static models.RequestParameters.QUERY_PARAM_COUNTRY;
 import static models.RequestParameters.QUERY_PARAM_LANG;
@@ -31,7 +29,7 @@ import static models.RequestParameters.QUERY_PARAM_LANG;
  * The common functionality for all the shop controllers.
  */
 public class BaseController extends ShopController {
-    private static final String COUNTRY_SESSION = "country_session";
+    public static final String COUNTRY_SESSION = "country_session";
     private final CategoryService categoryService;
     private final ProductService productService;
     private final CartService cartService;
@@ -80,14 +78,24 @@ public class BaseController extends ShopController {
         return customerService;
     }
 
-    protected final CommonDataBuilder data() {
-        final UserContext context = userContext(cart(), customer());
-        return data(context);
+    /**
+     * Gets the common data needed in almost every page, fetching the current cart and customer in parallel.
+     * @return the promise of the common data builder for the current user.
+     */
+    protected final F.Promise<CommonDataBuilder> dataAsync() {
+        return currentCart().zip(currentCustomer())
+                .map(new F.Function<F.Tuple<ShopCart, Optional<ShopCustomer>>, CommonDataBuilder>() {
+                    @Override
+                    public CommonDataBuilder apply(final F.Tuple<ShopCart, Optional<ShopCustomer>> userData) throws Throwable {
+                        return data(userContext(userData._1, userData._2));
+                    }
+                });
     }
 
     protected final CommonDataBuilder data(UserContext userContext) {
         List<CountryCode> availableCountry = availableCountries(Play.application().configuration());
         return CommonDataBuilder.of(userContext, Lang.availables(), availableCountry, categoryService.getRoots())
+                .withCategoryTreeVersion(categoryService.getVersion())
                 .withSelectableAttributes(selectableAttributeNames());
     }
 
@@ -95,12 +103,27 @@ public class BaseController extends ShopController {
         return UserContext.of(lang(), country(), currentCart, registeredCustomer);
     }
 
-    protected final ShopCart cart() {
-        return cartService.fetchCurrent().get(AsyncUtils.defaultTimeout());
+    /**
+     * Gets the current cart, shared with every other consumer of the current request.
+     * @return the promise of the current cart.
+     */
+    protected final F.Promise<ShopCart> currentCart() {
+        return RequestContext.of(Http.Context.current()).cart(cartService);
+    }
+
+    /**
+     * Gets the current customer, shared with every other consumer of the current request.
+     * @return the promise of the current customer, or of absent when not logged in.
+     */
+    protected final F.Promise<Optional<ShopCustomer>> currentCustomer() {
+        return RequestContext.of(Http.Context.current()).customer(customerService);
     }
 
-    protected final Optional<ShopCustomer> customer() {
-        return customerService.fetchCurrent().get(AsyncUtils.defaultTimeout());
+    /**
+     * Discards the current cart and customer fetched so far in this request, e.g. after logging in or out.
+     */
+    protected final void clearCurrentUser() {
+        RequestContext.of(Http.Context.current()).clear();
     }
 
     protected final Map<String, String[]> queryString() {
@@ -139,11 +162,17 @@ public class BaseController extends ShopController {
      * @param context the HTTP context of the user.
      * @param config the configuration of this shop.
      */
-    protected void changeCountry(CountryCode country, Http.Context context, Configuration config) {
+    protected void changeCountry(final CountryCode country, Http.Context context, Configuration config) {
         if (availableCountries(config).contains(country)) {
             context.session().put(COUNTRY_SESSION, country.getAlpha2());
             context.response().setCookie(countryCookieName(config), country.getAlpha2());
-            cartService.setCountry(cart(), country);
+            final RequestContext requestContext = RequestContext.of(context);
+            requestContext.putCart(requestContext.cart(cartService).flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
+                @Override
+                public F.Promise<ShopCart> apply(final ShopCart cart) throws Throwable {
+                    return cartService.setCountry(cart, country);
+                }
+            }));
         }
     }
 
@@ -241,6 +270,19 @@ public class BaseController extends ShopController {
         }
     }
 
+    /**
+     * Gets the not found page for the current user.
+     * @return the promise of the not found result.
+     */
+    protected final F.Promise<Result> notFoundPage() {
+        return dataAsync().map(new F.Function<CommonDataBuilder, Result>() {
+            @Override
+            public Result apply(final CommonDataBuilder data) throws Throwable {
+                return notFound(showNotFoundPage(data));
+            }
+        });
+    }
+
     static Content showNotFoundPage(CommonDataBuilder data) {
         return views.html.notFoundView.render(data.build());
     }
@@ -253,10 +295,6 @@ public class BaseController extends ShopController {
         return configurationValueAsString(Play.application().configuration(), "paymill.key.public", "");
     }
 
-    static String paymillPrivateKey() {
-        return configurationValueAsString(Play.application().configuration(), "paymill.key.private", "");
-    }
-
     protected Result redirectToReturnUrl() {
         return redirect(session("returnUrl"));
     }
@@ -3,6 +3,8 @@ package controllers;
 import com.google.common.base.Optional;
 import forms.cartForm.AddToCart;
 import forms.cartForm.UpdateCart;
+import models.CommonData;
+import models.CommonDataBuilder;
 import models.ShopCart;
 import models.ShopProduct;
 import play.data.Form;
@@ -43,10 +45,11 @@ public class CartController extends BaseController {
      * @return the cart page
      */
     public F.Promise<Result> show() {
-        return cartService().fetchCurrent().map(new F.Function<ShopCart, Result>() {
+        return dataAsync().map(new F.Function<CommonDataBuilder, Result>() {
             @Override
-            public Result apply(final ShopCart shopCart) throws Throwable {
-                return ok(cartView.render(data().build(), shopCart));
+            public Result apply(final CommonDataBuilder dataBuilder) throws Throwable {
+                final CommonData data = dataBuilder.build();
+                return ok(cartView.render(data, data.context().cart()));
             }
         });
     }
@@ -93,7 +96,12 @@ public class CartController extends BaseController {
             result = asPromise(redirectToCartDetailPage());
         } else {
             final UpdateCart updateCart = filledForm.get();
-            result = cartService().updateItem(cart(), updateCart.lineItemId, updateCart.quantity).map(new F.Function<ShopCart, Result>() {
+            result = currentCart().flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
+                @Override
+                public F.Promise<ShopCart> apply(final ShopCart shopCart) throws Throwable {
+                    return cartService().updateItem(shopCart, updateCart.lineItemId, updateCart.quantity);
+                }
+            }).map(new F.Function<ShopCart, Result>() {
                 @Override
                 public Result apply(final ShopCart shopCart) throws Throwable {
                     flash("cart-success", "Quantity updated.");
@@ -110,7 +118,12 @@ public class CartController extends BaseController {
      * @return In success case the cart detail page.
      */
     public F.Promise<Result> remove(final String lineItemId) {
-        return cartService().removeItem(cart(), lineItemId).map(new F.Function<ShopCart, Result>() {
+        return currentCart().flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
+            @Override
+            public F.Promise<ShopCart> apply(final ShopCart shopCart) throws Throwable {
+                return cartService().removeItem(shopCart, lineItemId);
+            }
+        }).map(new F.Function<ShopCart, Result>() {
             @Override
             public Result apply(final ShopCart shopCart) throws Throwable {
                 flash("cart-success", "Product removed from your shopping cart.");
@@ -119,8 +132,13 @@ public class CartController extends BaseController {
         });
     }
 
-    private F.Promise<Result> addProductToCart(final ShopProduct shopProduct, int quantity) {
-        return cartService().addItem(cart(), shopProduct, quantity).map(new F.Function<ShopCart, Result>() {
+    private F.Promise<Result> addProductToCart(final ShopProduct shopProduct, final int quantity) {
+        return currentCart().flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
+            @Override
+            public F.Promise<ShopCart> apply(final ShopCart shopCart) throws Throwable {
+                return cartService().addItem(shopCart, shopProduct, quantity);
+            }
+        }).map(new F.Function<ShopCart, Result>() {
             @Override
             public Result apply(ShopCart shopCart) throws Throwable {
                 flash("cart-success", shopProduct.getName(locale()) + " was added to your shopping cart.");
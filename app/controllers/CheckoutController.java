@@ -1,19 +1,21 @@
 package controllers;
 
 import com.google.common.base.Optional;
-import com.google.common.primitives.Ints;
 import controllers.actions.CartNotEmpty;
 import exceptions.DuplicateEmailException;
 import exceptions.InvalidShippingMethodException;
+import exceptions.PaymentException;
 import forms.checkoutForm.SetBilling;
 import forms.checkoutForm.SetShipping;
 import forms.customerForm.LogIn;
 import forms.customerForm.SignUp;
 import io.sphere.client.model.CustomObject;
-import io.sphere.client.model.Money;
 import io.sphere.client.model.VersionedId;
 import io.sphere.client.shop.model.*;
+import models.CommonData;
+import models.CommonDataBuilder;
 import models.PaymentMethods;
+import models.ShippingMethods;
 import models.ShopCart;
 import models.ShopCustomer;
 import models.ShopOrder;
@@ -21,6 +23,7 @@ import play.Logger;
 import play.i18n.Messages;
 import play.libs.F;
 import play.mvc.Content;
+import play.mvc.Http;
 import play.data.Form;
 import play.mvc.Result;
 import play.mvc.With;
@@ -28,19 +31,13 @@ import services.*;
 import views.html.checkoutView;
 import views.html.signupView;
 
-import de.paymill.Paymill;
-import de.paymill.PaymillException;
-import de.paymill.model.Payment;
-import de.paymill.model.Transaction;
-import de.paymill.service.PaymentService;
-import de.paymill.service.TransactionService;
-
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.List;
 
 import static controllers.CheckoutController.CheckoutStages.*;
 import static play.data.Form.form;
+import static utils.AsyncUtils.recoverWith;
+import static utils.AsyncUtils.timed;
 import static utils.AsyncUtils.zip;
 
 /**
@@ -65,7 +62,7 @@ public class CheckoutController extends BaseController {
     /** a flash key to check if the order preview page can be viewed */
     public static final String CAN_GO_TO_ORDER_PREVIEW = "canGoToOrderPreview";
     private final CheckoutService checkoutService;
-    private final ShippingMethodService shippingMethodService;
+    private final PaymentGateway paymentGateway;
 
     /**
      * The checkout process is divided into four parts. This enum provides the index number for each step.
@@ -82,10 +79,10 @@ public class CheckoutController extends BaseController {
     @Inject
     public CheckoutController(final CategoryService categoryService, final ProductService productService,
                               final CartService cartService, final CustomerService customerService,
-                              final CheckoutService checkoutService, final ShippingMethodService shippingMethodService) {
+                              final CheckoutService checkoutService, final PaymentGateway paymentGateway) {
         super(categoryService, productService, cartService, customerService);
         this.checkoutService = checkoutService;
-        this.shippingMethodService = shippingMethodService;
+        this.paymentGateway = paymentGateway;
     }
 
     /**
@@ -144,20 +141,60 @@ public class CheckoutController extends BaseController {
         }
     }
 
+    /**
+     * Builds the checkout page of the provided stage. Every piece of data the page needs is requested right away,
+     * i.e. cart, customer and checkout information are fetched in parallel, the shipping methods and cart snapshot
+     * are derived from the cart once it is fetched, and only the rendering waits for all of them. The time each of them takes is recorded as checkout.stages.*.
+     */
     @With(CartNotEmpty.class)
     protected F.Promise<Content> showPage(final CheckoutStages stage) {
         final int page = stage.key;
-        final F.Promise<ShopCart> shopCartPromise = cartService().fetchCurrent();
-        final F.Promise<List<ShippingMethod>> shippingMethodsPromise = shippingMethodService.getShippingMethods();
-        final F.Promise<String> paymentMethodPromise = paymentMethodOr(PaymentMethods.CREDITCARD.key());
-        return zip(shopCartPromise, shippingMethodsPromise, paymentMethodPromise, new F.Function3<ShopCart, List<ShippingMethod>, String, Content>() {
+        final long start = System.currentTimeMillis();
+        useLatestCart();
+        final F.Promise<CommonDataBuilder> dataPromise = timed("checkout.stages.data", start, dataAsync());
+        final F.Promise<ShippingMethods> shippingMethodsPromise =
+                timed("checkout.stages.shippingMethods", start, currentCart().flatMap(new F.Function<ShopCart, F.Promise<ShippingMethods>>() {
+                    @Override
+                    public F.Promise<ShippingMethods> apply(final ShopCart cart) throws Throwable {
+                        return checkoutService.getShippingMethods(cart);
+                    }
+                }));
+        final F.Promise<String> paymentMethodPromise =
+                timed("checkout.stages.paymentMethod", start, paymentMethodOr(PaymentMethods.CREDITCARD.key()));
+        final F.Promise<String> cartSnapshotPromise = timed("checkout.stages.cartSnapshot", start, cartSnapshot());
+        final F.Promise<Content> content = zip(dataPromise.zip(cartSnapshotPromise), shippingMethodsPromise, paymentMethodPromise,
+                new F.Function3<F.Tuple<CommonDataBuilder, String>, ShippingMethods, String, Content>() {
             @Override
-            public Content apply(final ShopCart cart, final List<ShippingMethod> shippingMethods, final String paymentMethod) throws Throwable {
-                final Optional<ShopCustomer> customer = customer();
-                final String cartSnapshot = cartService().createSnapshot();
+            public Content apply(final F.Tuple<CommonDataBuilder, String> dataAndSnapshot, final ShippingMethods shippingMethods,
+                                 final String paymentMethod) throws Throwable {
+                final CommonData data = dataAndSnapshot._1.build();
+                final String cartSnapshot = dataAndSnapshot._2;
+                final ShopCart cart = data.context().cart();
+                final Optional<ShopCustomer> customer = data.context().customer();
                 final Address shippingAddress = getShippingAddress(cart, customer);
                 final Address billingAddress = getBillingAddress(cart, customer);
-                return checkoutView.render(data().build(), cart, cartSnapshot, shippingAddress, billingAddress, availableStates(), shippingMethods, paymentMethod, paymillPublicKey(), page);
+                return checkoutView.render(data, cart, cartSnapshot, shippingAddress, billingAddress, availableStates(), shippingMethods, paymentMethod, paymillPublicKey(), page);
+            }
+        });
+        return timed("checkout.stages.total", start, content);
+    }
+
+    /**
+     * Makes the rest of this request use the cart as stored in the backend instead of the state kept in memory,
+     * since the prices shown and charged in the checkout must be up to date.
+     */
+    private void useLatestCart() {
+        RequestContext.of(Http.Context.current()).putCart(cartService().fetchLatest());
+    }
+
+    /**
+     * Creates the snapshot of the current cart once it is fetched, without fetching it again.
+     */
+    private F.Promise<String> cartSnapshot() {
+        return currentCart().map(new F.Function<ShopCart, String>() {
+            @Override
+            public String apply(final ShopCart cart) throws Throwable {
+                return cartService().createSnapshot(cart);
             }
         });
     }
@@ -186,7 +223,7 @@ public class CheckoutController extends BaseController {
             return showShipping();
         } else {
             final SignUp signUp = filledForm.get();
-            return customerService().signUp(signUp.email, signUp.password, signUp.getCustomerName())
+            final F.Promise<Result> result = customerService().signUp(signUp.email, signUp.password, signUp.getCustomerName())
                     .map(new F.Function<ShopCustomer, Result>() {
                         @Override
                         public Result apply(final ShopCustomer shopCustomer) throws Throwable {
@@ -194,18 +231,23 @@ public class CheckoutController extends BaseController {
                             flash("success", Messages.get(lang(), "welcomeNewCustomer", name.getFirstName(), name.getLastName()));
                             return redirect(controllers.routes.CheckoutController.showShipping());
                         }
-                    })
-                    .recover(new F.Function<Throwable, Result>() {
-                        @Override
-                        public Result apply(Throwable throwable) throws Throwable {
-                            if (throwable instanceof DuplicateEmailException) {
-                                flash("error", Messages.get(lang(), "error.emailAlreadyInUse", signUp.email));
-                                return badRequest(signupView.render(data().build(), filledForm));
-                            } else {
-                                throw throwable;
-                            }
-                        }
                     });
+            return recoverWith(result, new F.Function<Throwable, F.Promise<Result>>() {
+                @Override
+                public F.Promise<Result> apply(Throwable throwable) throws Throwable {
+                    if (throwable instanceof DuplicateEmailException) {
+                        flash("error", Messages.get(lang(), "error.emailAlreadyInUse", signUp.email));
+                        return dataAsync().map(new F.Function<CommonDataBuilder, Result>() {
+                            @Override
+                            public Result apply(final CommonDataBuilder data) throws Throwable {
+                                return badRequest(signupView.render(data.build(), filledForm));
+                            }
+                        });
+                    } else {
+                        throw throwable;
+                    }
+                }
+            });
         }
     }
 
@@ -224,6 +266,7 @@ public class CheckoutController extends BaseController {
                 @Override
                 public F.Promise<Result> apply(final Optional<ShopCustomer> shopCustomerOptional) throws Throwable {
                     if (shopCustomerOptional.isPresent()) {
+                        clearCurrentUser();
                         return ok(showPage(SHIPPING_INFORMATION_2));
                     } else {
                         flash("error", "Invalid username or password");
@@ -242,14 +285,20 @@ public class CheckoutController extends BaseController {
             return badRequest(showPage(SHIPPING_INFORMATION_2));
         } else {
             final SetShipping setShipping = filledForm.get();
-            return shippingMethodService.fetchById(setShipping.method)
-                    .zip(cartService().fetchCurrent())
-                    .flatMap(new F.Function<F.Tuple<Optional<ShippingMethod>, ShopCart>, F.Promise<Result>>() {
+            final Address shippingAddress = setShipping.getAddress();
+            return currentCart()
+                    .flatMap(new F.Function<ShopCart, F.Promise<F.Tuple<ShippingMethods, ShopCart>>>() {
                         @Override
-                        public F.Promise<Result> apply(F.Tuple<Optional<ShippingMethod>, ShopCart> tuple) throws Throwable {
-                            final ShippingMethod shippingMethod = requireExistingShippingMethod(tuple._1, setShipping.method);
+                        public F.Promise<F.Tuple<ShippingMethods, ShopCart>> apply(final ShopCart cart) throws Throwable {
+                            return checkoutService.getShippingMethods(cart, shippingAddress).zip(F.Promise.pure(cart));
+                        }
+                    })
+                    .flatMap(new F.Function<F.Tuple<ShippingMethods, ShopCart>, F.Promise<Result>>() {
+                        @Override
+                        public F.Promise<Result> apply(F.Tuple<ShippingMethods, ShopCart> tuple) throws Throwable {
+                            final ShippingMethod shippingMethod = requireApplicableShippingMethod(tuple._1, setShipping.method);
                             final ShopCart shopCart = tuple._2;
-                            return cartService().setShippingAddress(shopCart, setShipping.getAddress())
+                            return cartService().setShippingAddress(shopCart, shippingAddress)
                                     .flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
                                         @Override
                                         public F.Promise<ShopCart> apply(ShopCart shopCart1) throws Throwable {
@@ -272,9 +321,14 @@ public class CheckoutController extends BaseController {
         }
     }
 
-    protected ShippingMethod requireExistingShippingMethod(Optional<ShippingMethod> shippingMethodOptional, String id) {
+    /**
+     * Gets the shipping method with the provided ID, as long as it applies to the cart and the chosen shipping address.
+     * @throws InvalidShippingMethodException if there is no applicable shipping method with this ID.
+     */
+    protected ShippingMethod requireApplicableShippingMethod(ShippingMethods shippingMethods, String id) {
+        final Optional<ShippingMethod> shippingMethodOptional = shippingMethods.getById(id);
         if (!shippingMethodOptional.isPresent()) {
-            throw InvalidShippingMethodException.ofWrongId(id);
+            throw InvalidShippingMethodException.ofNotApplicable(id);
         }
         return shippingMethodOptional.get();
     }
@@ -286,7 +340,7 @@ public class CheckoutController extends BaseController {
             return badRequest(showPage(BILLING_INFORMATION_3));
         } else {
             final SetBilling setBilling = filledForm.get();
-            return cartService().fetchCurrent().flatMap(new F.Function<ShopCart, F.Promise<Result>>() {
+            return currentCart().flatMap(new F.Function<ShopCart, F.Promise<Result>>() {
                 @Override
                 public F.Promise<Result> apply(final ShopCart shopCart) throws Throwable {
                     return cartService().setBillingAddress(shopCart, setBilling.getAddress())
@@ -304,50 +358,85 @@ public class CheckoutController extends BaseController {
 
     public F.Promise<Result> submit() {
         final String cartSnapshot = form().bindFromRequest().field("cartSnapshot").valueOr("");
-        if (!cartService().canCreateOrder(cartSnapshot)) {
-            flash("error", "Your cart has changed, check everything is correct");
-            return badRequest(showPage(ORDER_PREVIEW_4));
-        } else {
-            return cartService().fetchCurrent().flatMap(new F.Function<ShopCart, F.Promise<Result>>() {
-                @Override
-                public F.Promise<Result> apply(final ShopCart shopCart) throws Throwable {
+        useLatestCart();
+        return currentCart().flatMap(new F.Function<ShopCart, F.Promise<Result>>() {
+            @Override
+            public F.Promise<Result> apply(final ShopCart shopCart) throws Throwable {
+                if (!cartService().canCreateOrder(shopCart, cartSnapshot)) {
+                    flash("error", "Your cart has changed, check everything is correct");
+                    return badRequest(showPage(ORDER_PREVIEW_4));
+                } else {
                     return chargeCustomer(shopCart, cartSnapshot);
                 }
-            });
-        }
+            }
+        });
     }
 
+    /**
+     * Charges the customer for the cart and creates the order. The charge is identified by the order number
+     * of the cart and its transaction is stored with the checkout information, so that a repeated submit
+     * creates the order without charging the customer again.
+     * @param cart the cart to create the order from.
+     * @param cartSnapshot the snapshot of the cart the customer agreed to.
+     * @return the promise of the result, redirecting to the home page once the order is created.
+     */
     public F.Promise<Result> chargeCustomer(final ShopCart cart, final String cartSnapshot) {
-        return checkoutService.getPaymentToken(cart.getId()).flatMap(new F.Function<Optional<String>, F.Promise<Result>>() {
+        final F.Promise<Optional<String>> tokenPromise = checkoutService.getPaymentToken(cart.getId());
+        final F.Promise<String> orderNumberPromise = checkoutService.startOrderNumber(cart.getId());
+        final F.Promise<Optional<String>> transactionPromise = checkoutService.getPaymentTransaction(cart.getId());
+        final F.Promise<String> charge = zip(tokenPromise, orderNumberPromise, transactionPromise,
+                new F.Function3<Optional<String>, String, Optional<String>, F.Promise<String>>() {
             @Override
-            public F.Promise<Result> apply(Optional<String> token) throws Throwable {
-                if (token.isPresent()) {
-                    try {
-                        // Get payment object from token
-                        Paymill.setApiKey(paymillPrivateKey());
-                        PaymentService paymentSrv = Paymill.getService(PaymentService.class);
-                        Payment payment = paymentSrv.create(token.get());
-                        // Set transaction details
-                        TransactionService transactionSrv = Paymill.getService(TransactionService.class);
-                        Transaction transaction = new Transaction();
-                        Money money = cart.getTotalPrice();
-                        transaction.setPayment(payment);
-                        transaction.setAmount(Ints.checkedCast(money.getCentAmount()));
-                        transaction.setCurrency(money.getCurrencyCode());
-                        // Execute charge transaction
-                        play.Logger.debug("Executing payment " + payment.getId() + " of " + transaction.getAmount()
-                                + " " + transaction.getCurrency() + " with token " + token);
-                        transactionSrv.create(transaction);
-                        return cartService().createOrder(cart, cartSnapshot)
-                                .map(f().<Optional<ShopOrder>>redirectWithFlash(controllers.routes.HomeController.home(), "success", "Your order has been successfully created!"));
-
-                    } catch (PaymillException pe) {
-                        throw new RuntimeException("Payment failed unexpectedly", pe);
-                    }
+            public F.Promise<String> apply(final Optional<String> token, final String orderNumber,
+                                           final Optional<String> transaction) throws Throwable {
+                if (transaction.isPresent()) {
+                    return F.Promise.pure(transaction.get());
+                } else if (token.isPresent()) {
+                    return charge(cart, "order-" + orderNumber, token.get());
                 } else {
                     throw new RuntimeException("No payment token found");
                 }
             }
+        }).flatMap(new F.Function<F.Promise<String>, F.Promise<String>>() {
+            @Override
+            public F.Promise<String> apply(final F.Promise<String> transaction) throws Throwable {
+                return transaction;
+            }
+        });
+        final F.Promise<Result> result = charge.flatMap(new F.Function<String, F.Promise<Result>>() {
+            @Override
+            public F.Promise<Result> apply(final String transaction) throws Throwable {
+                return cartService().createOrder(cart, cartSnapshot)
+                        .map(f().<Optional<ShopOrder>>redirectWithFlash(controllers.routes.HomeController.home(), "success", "Your order has been successfully created!"));
+            }
+        });
+        return recoverWith(result, new F.Function<Throwable, F.Promise<Result>>() {
+            @Override
+            public F.Promise<Result> apply(final Throwable throwable) throws Throwable {
+                if (throwable instanceof PaymentException) {
+                    flash("error", "Your payment could not be processed, please try again");
+                    return badRequest(showPage(ORDER_PREVIEW_4));
+                }
+                throw throwable;
+            }
+        });
+    }
+
+    /**
+     * Charges the customer, storing the transaction with the checkout information as soon as the charge succeeds,
+     * even if the customer stopped waiting for it, so that a later submit does not charge the customer again.
+     */
+    private F.Promise<String> charge(final ShopCart cart, final String idempotencyKey, final String token) {
+        return paymentGateway.charge(idempotencyKey, token, cart.getTotalPrice(), new F.Callback<String>() {
+            @Override
+            public void invoke(final String transaction) throws Throwable {
+                checkoutService.setPaymentTransaction(cart.getId(), transaction).onFailure(new F.Callback<Throwable>() {
+                    @Override
+                    public void invoke(final Throwable throwable) throws Throwable {
+                        Logger.error("Could not store transaction " + transaction + " of cart " + cart.getId(), throwable);
+                    }
+                });
+            }
         });
     }
 
@@ -5,9 +5,11 @@ import controllers.actions.Authorization;
 import exceptions.PasswordNotMatchException;
 import forms.customerForm.UpdateCustomer;
 import forms.passwordForm.UpdatePassword;
+import models.CommonDataBuilder;
 import models.ShopCustomer;
-import models.ShopOrder;
+import models.OrderHistory;
 import play.Logger;
+import play.Play;
 import play.data.Form;
 import play.i18n.Messages;
 import play.libs.F;
@@ -20,7 +22,6 @@ import views.html.customerView;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.List;
 
 import static play.data.Form.form;
 import static utils.AsyncUtils.asPromise;
@@ -37,7 +38,10 @@ public class CustomerController extends BaseController {
     /** form to set a new customer password */
     static final Form<UpdatePassword> updatePasswordForm = form(UpdatePassword.class);
 
+    protected static final int DEFAULT_ORDERS_PAGE_SIZE = 10;
+
     private final OrderService orderService;
+    private final int ordersPageSize;
 
     @Inject
     public CustomerController(final CategoryService categoryService, final ProductService productService,
@@ -45,14 +49,16 @@ public class CustomerController extends BaseController {
                               final OrderService orderService) {
         super(categoryService, productService, cartService, customerService);
         this.orderService = orderService;
+        this.ordersPageSize = Play.application().configuration().getInt("shop.customer.orders.pageSize", DEFAULT_ORDERS_PAGE_SIZE);
     }
 
     /**
      * Shows the "my account" page.
+     * @param page the page of the order history, starting with 1.
      * @return a page with a form for changing the name and email, a form to change the password, the list of orders
      */
-    public F.Promise<Result> show() {
-        return customerService().fetchCurrent().flatMap(new F.Function<Optional<ShopCustomer>, F.Promise<Result>>() {
+    public F.Promise<Result> show(final int page) {
+        return currentCustomer().flatMap(new F.Function<Optional<ShopCustomer>, F.Promise<Result>>() {
             @Override
             public F.Promise<Result> apply(Optional<ShopCustomer> shopCustomerOptional) throws Throwable {
                 if (!shopCustomerOptional.isPresent()) {
@@ -61,7 +67,7 @@ public class CustomerController extends BaseController {
                     return asPromise(redirectToReturnUrl());
                 } else {
                     final Form<UpdateCustomer> filledCustomerForm = updateCustomerForm.fill(new UpdateCustomer(shopCustomerOptional.get()));
-                    return displayCustomerPage(shopCustomerOptional.get(), filledCustomerForm, updatePasswordForm, OK);
+                    return displayCustomerPage(shopCustomerOptional.get(), filledCustomerForm, updatePasswordForm, page, OK);
                 }
             }
         });
@@ -72,7 +78,7 @@ public class CustomerController extends BaseController {
      * @return "my account" page
      */
     public F.Promise<Result> handleCustomerUpdate() {
-        final F.Promise<Optional<ShopCustomer>> customerPromise = customerService().fetchCurrent();
+        final F.Promise<Optional<ShopCustomer>> customerPromise = currentCustomer();
         final Form<UpdateCustomer> filledForm = updateCustomerForm.bindFromRequest();
         F.Promise<Result> result;
         if (filledForm.hasErrors()) {
@@ -89,13 +95,13 @@ public class CustomerController extends BaseController {
      */
     public F.Promise<Result> handlePasswordUpdate() {
         final Form<UpdatePassword> filledForm = updatePasswordForm.bindFromRequest();
-        final F.Promise<Optional<ShopCustomer>> customerPromise = customerService().fetchCurrent();
+        final F.Promise<Optional<ShopCustomer>> customerPromise = currentCustomer();
         final F.Promise<Result> result;
         if (filledForm.hasErrors()) {
             result = customerPromise.flatMap(new F.Function<Optional<ShopCustomer>, F.Promise<Result>>() {
                 @Override
                 public F.Promise<Result> apply(Optional<ShopCustomer> shopCustomerOptional) throws Throwable {
-                    return displayCustomerPage(shopCustomerOptional.get(), updateCustomerForm, filledForm, BAD_REQUEST);
+                    return displayCustomerPage(shopCustomerOptional.get(), updateCustomerForm, filledForm, 1, BAD_REQUEST);
                 }
             });
         } else {
@@ -117,7 +123,7 @@ public class CustomerController extends BaseController {
             public Result apply(final Throwable throwable) throws Throwable {
                 if (throwable instanceof PasswordNotMatchException) {
                     flash("error", Messages.get(lang(), "error.passwordNotMatch"));
-                    return redirect(controllers.routes.CustomerController.show());
+                    return redirect(controllers.routes.CustomerController.show(1));
                 } else {
                     throw throwable;
                 }
@@ -125,11 +131,11 @@ public class CustomerController extends BaseController {
         };
     }
 
-    private F.Promise<Result> displayCustomerPage(final ShopCustomer customer, final Form<UpdateCustomer> updateCustomerForm, final Form<UpdatePassword> updatePasswordForm, final int responseCode) {
-        return orderService.fetchByCustomer(customer).map(new F.Function<List<ShopOrder>, Result>() {
+    private F.Promise<Result> displayCustomerPage(final ShopCustomer customer, final Form<UpdateCustomer> updateCustomerForm, final Form<UpdatePassword> updatePasswordForm, final int page, final int responseCode) {
+        return orderService.fetchByCustomer(customer, Math.max(0, page - 1), ordersPageSize).zip(dataAsync()).map(new F.Function<F.Tuple<OrderHistory, CommonDataBuilder>, Result>() {
             @Override
-            public Result apply(final List<ShopOrder> shopOrders) throws Throwable {
-                return status(responseCode, customerView.render(data().build(), customer, updateCustomerForm, updatePasswordForm, shopOrders));
+            public Result apply(final F.Tuple<OrderHistory, CommonDataBuilder> pageData) throws Throwable {
+                return status(responseCode, customerView.render(pageData._2.build(), customer, updateCustomerForm, updatePasswordForm, pageData._1));
             }
         });
     }
@@ -149,7 +155,7 @@ public class CustomerController extends BaseController {
         return promise.map(new F.Function<T, Result>() {
             @Override
             public Result apply(final T t) throws Throwable {
-                return redirect(controllers.routes.CustomerController.show());
+                return redirect(controllers.routes.CustomerController.show(1));
             }
         });
     }
@@ -158,7 +164,7 @@ public class CustomerController extends BaseController {
         return customerPromise.flatMap(new F.Function<Optional<ShopCustomer>, F.Promise<Result>>() {
             @Override
             public F.Promise<Result> apply(Optional<ShopCustomer> shopCustomerOptional) throws Throwable {
-                return displayCustomerPage(shopCustomerOptional.get(), filledForm, updatePasswordForm, BAD_REQUEST);
+                return displayCustomerPage(shopCustomerOptional.get(), filledForm, updatePasswordForm, 1, BAD_REQUEST);
             }
         });
     }
@@ -1,5 +1,6 @@
 package controllers;
 
+import controllers.actions.CachedPage;
 import controllers.actions.SaveContext;
 import models.CommonDataBuilder;
 import models.ProductList;
@@ -15,6 +16,8 @@ import services.ProductService;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import static utils.AsyncUtils.zip;
+
 @Singleton
 public class HomeController extends BaseController {
 
@@ -24,15 +27,13 @@ public class HomeController extends BaseController {
         super(categoryService, productService, cartService, customerService);
     }
 
-    @With(SaveContext.class)
+    @With({SaveContext.class, CachedPage.class})
     public F.Promise<Result> home() {
-        return productService().fetchNewProducts().zip(productService().fetchProductsInOffer())
-                .map(new F.Function<F.Tuple<ProductList, ProductList>, Result>() {
+        return zip(productService().fetchNewProducts(), productService().fetchProductsInOffer(), dataAsync(),
+                new F.Function3<ProductList, ProductList, CommonDataBuilder, Result>() {
                     @Override
-                    public Result apply(F.Tuple<ProductList, ProductList> productLists) throws Throwable {
-                        ProductList productsNewest = productLists._1;
-                        ProductList productsOffers = productLists._2;
-                        return ok(showHomePage(data(), productsNewest, productsOffers));
+                    public Result apply(ProductList productsNewest, ProductList productsOffers, CommonDataBuilder data) throws Throwable {
+                        return ok(showHomePage(data, productsNewest, productsOffers));
                     }
                 });
     }
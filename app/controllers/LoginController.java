@@ -4,6 +4,7 @@ import com.google.common.base.Optional;
 import exceptions.DuplicateEmailException;
 import forms.customerForm.LogIn;
 import forms.customerForm.SignUp;
+import models.CommonDataBuilder;
 import models.ShopCustomer;
 import play.data.Form;
 import play.i18n.Messages;
@@ -21,6 +22,7 @@ import javax.inject.Singleton;
 
 import static play.data.Form.form;
 import static utils.AsyncUtils.asPromise;
+import static utils.AsyncUtils.recoverWith;
 
 /**
  * handles the lifecycle of the customer login and sign up.
@@ -45,19 +47,30 @@ public class LoginController extends BaseController {
      *
      * @return login form page
      */
-    public Result showSignIn() {
+    public F.Promise<Result> showSignIn() {
         if (customerService().isLoggedIn()) {
             customerService().logout();
+            clearCurrentUser();
         }
-        return ok(loginView.render(data().build(), logInForm));
+        return dataAsync().map(new F.Function<CommonDataBuilder, Result>() {
+            @Override
+            public Result apply(final CommonDataBuilder data) throws Throwable {
+                return ok(loginView.render(data.build(), logInForm));
+            }
+        });
     }
 
     /**
      * Shows the page to become a new registered customer.
      * @return sign up form ui
      */
-    public Result showSignUp() {
-        return ok(signupView.render(data().build(), signUpForm));
+    public F.Promise<Result> showSignUp() {
+        return dataAsync().map(new F.Function<CommonDataBuilder, Result>() {
+            @Override
+            public Result apply(final CommonDataBuilder data) throws Throwable {
+                return ok(signupView.render(data.build(), signUpForm));
+            }
+        });
     }
 
     /**
@@ -70,7 +83,7 @@ public class LoginController extends BaseController {
         if(customerService().isLoggedIn()) {
             return asPromise(redirectToReturnUrl());
         } else if (filledForm.hasErrors()) {
-            return asPromise(badRequest(signupView.render(data().build(), filledForm)));
+            return showSignUpWithErrors(filledForm);
         } else {
             return handleSignUpWithValidForm(filledForm);
         }
@@ -86,7 +99,7 @@ public class LoginController extends BaseController {
             return asPromise(redirect(controllers.routes.HomeController.home()));
         } else if (filledForm.hasErrors()) {
             flash("error", "Login form contains missing or invalid data.");
-            return asPromise(badRequest(loginView.render(data().build(), filledForm)));
+            return showSignInWithErrors(filledForm);
         } else {
             return handleSignInWithValidForm(filledForm);
         }
@@ -103,15 +116,15 @@ public class LoginController extends BaseController {
 
     private F.Promise<Result> handleSignInWithValidForm(final Form<LogIn> filledForm) {
         final LogIn logIn = filledForm.get();
-        return customerService().login(logIn.email, logIn.password).map(new F.Function<Optional<ShopCustomer>, Result>() {
+        return customerService().login(logIn.email, logIn.password).flatMap(new F.Function<Optional<ShopCustomer>, F.Promise<Result>>() {
             @Override
-            public Result apply(Optional<ShopCustomer> shopCustomerOptional) throws Throwable {
+            public F.Promise<Result> apply(Optional<ShopCustomer> shopCustomerOptional) throws Throwable {
                 if (shopCustomerOptional.isPresent()) {
                     flash("success", "You are signed in.");
-                    return redirect(controllers.routes.HomeController.home());
+                    return asPromise(redirect(controllers.routes.HomeController.home()));
                 } else {
                     flash("error", "Invalid username or password.");
-                    return badRequest(loginView.render(data().build(), filledForm));
+                    return showSignInWithErrors(filledForm);
                 }
             }
         });
@@ -119,23 +132,41 @@ public class LoginController extends BaseController {
 
     private F.Promise<Result> handleSignUpWithValidForm(final Form<SignUp> filledForm) {
         final SignUp signUp = filledForm.get();
-        return customerService().signUp(signUp.email, signUp.password, signUp.getCustomerName())
+        final F.Promise<Result> result = customerService().signUp(signUp.email, signUp.password, signUp.getCustomerName())
                 .map(new F.Function<ShopCustomer, Result>() {
                     @Override
                     public Result apply(final ShopCustomer shopCustomer) throws Throwable {
-                        return redirect(controllers.routes.CustomerController.show());
-                    }
-                })
-                .recover(new F.Function<Throwable, Result>() {
-                    @Override
-                    public Result apply(Throwable throwable) throws Throwable {
-                        if (throwable instanceof DuplicateEmailException) {
-                            flash("error", Messages.get(lang(), "error.emailAlreadyInUse", signUp.email));
-                            return badRequest(signupView.render(data().build(), filledForm));
-                        } else {
-                            throw throwable;
-                        }
+                        return redirect(controllers.routes.CustomerController.show(1));
                     }
                 });
+        return recoverWith(result, new F.Function<Throwable, F.Promise<Result>>() {
+            @Override
+            public F.Promise<Result> apply(Throwable throwable) throws Throwable {
+                if (throwable instanceof DuplicateEmailException) {
+                    flash("error", Messages.get(lang(), "error.emailAlreadyInUse", signUp.email));
+                    return showSignUpWithErrors(filledForm);
+                } else {
+                    throw throwable;
+                }
+            }
+        });
+    }
+
+    private F.Promise<Result> showSignInWithErrors(final Form<LogIn> filledForm) {
+        return dataAsync().map(new F.Function<CommonDataBuilder, Result>() {
+            @Override
+            public Result apply(final CommonDataBuilder data) throws Throwable {
+                return badRequest(loginView.render(data.build(), filledForm));
+            }
+        });
+    }
+
+    private F.Promise<Result> showSignUpWithErrors(final Form<SignUp> filledForm) {
+        return dataAsync().map(new F.Function<CommonDataBuilder, Result>() {
+            @Override
+            public Result apply(final CommonDataBuilder data) throws Throwable {
+                return badRequest(signupView.render(data.build(), filledForm));
+            }
+        });
     }
 }
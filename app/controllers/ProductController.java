@@ -1,6 +1,7 @@
 package controllers;
 
 import com.google.common.base.Optional;
+import controllers.actions.CachedPage;
 import controllers.actions.SaveContext;
 import models.*;
 import play.libs.F;
@@ -10,23 +11,28 @@ import services.CartService;
 import services.CategoryService;
 import services.CustomerService;
 import services.ProductService;
+import services.RecommendationService;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import static utils.AsyncUtils.asPromise;
-
 @Singleton
 @With(SaveContext.class)
 public class ProductController extends BaseController {
 
+    private final RecommendationService recommendationService;
+
     @Inject
     public ProductController(CategoryService categoryService, ProductService productService,
-                             CartService cartService, CustomerService customerService) {
+                             CartService cartService, CustomerService customerService,
+                             RecommendationService recommendationService) {
         super(categoryService, productService, cartService, customerService);
+        this.recommendationService = recommendationService;
     }
 
+    @With(CachedPage.class)
     public F.Promise<Result> select(final String productSlug, final int variantId, final String categorySlug) {
+        final F.Promise<CommonDataBuilder> dataPromise = dataAsync();
         return productService().fetchBySlug(locale(), productSlug, variantId)
                 .flatMap(new F.Function<Optional<ShopProduct>, F.Promise<Result>>() {
                     @Override
@@ -34,42 +40,43 @@ public class ProductController extends BaseController {
                         if (product.isPresent()) {
                             final Optional<ShopCategory> category = categoryService().getBySlug(locale(), categorySlug)
                                     .or(product.get().getMainCategory());
-                            return productService().fetchRecommendedProducts(locale(), product.get())
-                                    .map(new F.Function<Optional<ProductList>, Result>() {
-                                        @Override
-                                        public Result apply(Optional<ProductList> productList) throws Throwable {
-                                            return showProductPage(data(), product.get(), category, productList);
-                                        }
-                                    });
+                            return showProductPage(dataPromise, product.get(), category);
                         } else {
-                            return asPromise(notFound(showNotFoundPage(data())));
+                            return notFoundPage();
                         }
                     }
                 });
     }
 
     //TODO this should not be indexed by search engines
+    @With(CachedPage.class)
     public F.Promise<Result> selectById(String productId, int variantId) {
+        final F.Promise<CommonDataBuilder> dataPromise = dataAsync();
         return productService().fetchById(productId, variantId)
                 .flatMap(new F.Function<Optional<ShopProduct>, F.Promise<Result>>() {
                     @Override
                     public F.Promise<Result> apply(final Optional<ShopProduct> product) throws Throwable {
                         if (product.isPresent()) {
                             final Optional<ShopCategory> category = product.get().getMainCategory();
-                            return productService().fetchRecommendedProducts(locale(), product.get())
-                                    .map(new F.Function<Optional<ProductList>, Result>() {
-                                        @Override
-                                        public Result apply(Optional<ProductList> productList) throws Throwable {
-                                            return showProductPage(data(), product.get(), category, productList);
-                                        }
-                                    });
+                            return showProductPage(dataPromise, product.get(), category);
                         } else {
-                            return asPromise(notFound(showNotFoundPage(data())));
+                            return notFoundPage();
                         }
                     }
                 });
     }
 
+    private F.Promise<Result> showProductPage(final F.Promise<CommonDataBuilder> dataPromise, final ShopProduct product,
+                                              final Optional<ShopCategory> category) {
+        final F.Promise<Optional<ProductList>> recommendedProducts = recommendationService.getRecommendedProducts(product);
+        return dataPromise.zip(recommendedProducts).map(new F.Function<F.Tuple<CommonDataBuilder, Optional<ProductList>>, Result>() {
+            @Override
+            public Result apply(F.Tuple<CommonDataBuilder, Optional<ProductList>> pageData) throws Throwable {
+                return showProductPage(pageData._1, product, category, pageData._2);
+            }
+        });
+    }
+
     static Result showProductPage(CommonDataBuilder dataBuilder, ShopProduct product, Optional<ShopCategory> category,
                                   Optional<ProductList> recommendedProducts) {
         if (category.isPresent()) {
@@ -1,6 +1,7 @@
 package controllers;
 
 import com.google.common.base.Optional;
+import controllers.actions.CachedPage;
 import controllers.actions.SaveContext;
 import models.*;
 import play.libs.F;
@@ -12,8 +13,6 @@ import services.*;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import static utils.AsyncUtils.asPromise;
-
 @Singleton
 public class ProductListController extends BaseController {
 
@@ -24,37 +23,44 @@ public class ProductListController extends BaseController {
     }
 
     //since this is the default endpoint if any other route does not match, it must not
-    //have the @With(SaveContext.class) annotation since this returns 404
+    //have the @With(SaveContext.class) annotation since this returns 404, whereas
+    //@With(CachedPage.class) is safe because only 200 responses are cached
+    @With(CachedPage.class)
     public F.Promise<Result> categoryProducts(String categorySlug, int page) {
         final Optional<ShopCategory> category = categoryService().getBySlug(locale(), categorySlug);
         if (category.isPresent()) {
             RequestParameters parameters = RequestParameters.of(queryString());
             return productService().fetchCategoryProducts(locale(), category.get(), parsePage(page), parameters)
-                    .map(new F.Function<ProductList, Result>() {
+                    .zip(dataAsync())
+                    .map(new F.Function<F.Tuple<ProductList, CommonDataBuilder>, Result>() {
                         @Override
-                        public Result apply(ProductList productList) throws Throwable {
+                        public Result apply(F.Tuple<ProductList, CommonDataBuilder> pageData) throws Throwable {
+                            final ProductList productList = pageData._1;
                             if (productList.isEmpty()) {
                                 flash("info-product-list", "No products found");
                             }
                             session().put("returnUrl", request().uri());
-                            return ok(showProductCategoryPage(data(), productList, category.get()));
+                            return ok(showProductCategoryPage(pageData._2, productList, category.get()));
                         }
                     });
         } else {
-            return asPromise(notFound(showNotFoundPage(data())));
+            return notFoundPage();
         }
     }
 
+    @With(CachedPage.class)
     public F.Promise<Result> searchProducts(int page) {
         final RequestParameters parameters = RequestParameters.of(queryString());
         return productService().fetchSearchedProducts(locale(), parsePage(page), parameters)
-                .map(new F.Function<ProductList, Result>() {
+                .zip(dataAsync())
+                .map(new F.Function<F.Tuple<ProductList, CommonDataBuilder>, Result>() {
                     @Override
-                    public Result apply(ProductList productList) throws Throwable {
+                    public Result apply(F.Tuple<ProductList, CommonDataBuilder> pageData) throws Throwable {
+                        final ProductList productList = pageData._1;
                         if (productList.isEmpty()) {
                             flash("info-product-list", "No products found");
                         }
-                        return ok(showProductSearchPage(data(), productList));
+                        return ok(showProductSearchPage(pageData._2, productList));
                     }
                 });
 
@@ -0,0 +1,85 @@
+package controllers;
+
+import com.google.common.base.Optional;
+import models.ShopCart;
+import models.ShopCustomer;
+import play.libs.F;
+import play.mvc.Http;
+import services.CartService;
+import services.CustomerService;
+import utils.Metrics;
+
+/**
+ * Keeps the data shared by everything that handles the same request, i.e. the global request handler,
+ * actions and controllers, so that the current cart and customer are fetched at most once per request.
+ */
+public final class RequestContext {
+    public static final String DEDUPLICATED_FETCHES = "request.fetches.deduplicated";
+    private static final String CONTEXT_KEY = "requestContext";
+
+    private F.Promise<ShopCart> cart;
+    private F.Promise<Optional<ShopCustomer>> customer;
+
+    private RequestContext() {
+    }
+
+    /**
+     * Gets the request context stored in the provided HTTP context, creating it if it does not exist yet.
+     * @param context the HTTP context of the current request.
+     * @return the request context of the current request.
+     */
+    public static RequestContext of(final Http.Context context) {
+        synchronized (context.args) {
+            Object requestContext = context.args.get(CONTEXT_KEY);
+            if (requestContext == null) {
+                requestContext = new RequestContext();
+                context.args.put(CONTEXT_KEY, requestContext);
+            }
+            return (RequestContext) requestContext;
+        }
+    }
+
+    /**
+     * Gets the current cart, fetching it only if no other consumer requested it before in this request.
+     * @param cartService the service used to fetch the cart.
+     * @return the promise of the current cart.
+     */
+    public synchronized F.Promise<ShopCart> cart(final CartService cartService) {
+        if (cart == null) {
+            cart = cartService.fetchCurrent();
+        } else {
+            Metrics.increment(DEDUPLICATED_FETCHES);
+        }
+        return cart;
+    }
+
+    /**
+     * Replaces the current cart of this request, e.g. with the promise of an updated cart.
+     * @param cart the promise of the current cart.
+     */
+    public synchronized void putCart(final F.Promise<ShopCart> cart) {
+        this.cart = cart;
+    }
+
+    /**
+     * Gets the current customer, fetching it only if no other consumer requested it before in this request.
+     * @param customerService the service used to fetch the customer.
+     * @return the promise of the current customer, or of absent when not logged in.
+     */
+    public synchronized F.Promise<Optional<ShopCustomer>> customer(final CustomerService customerService) {
+        if (customer == null) {
+            customer = customerService.fetchCurrent();
+        } else {
+            Metrics.increment(DEDUPLICATED_FETCHES);
+        }
+        return customer;
+    }
+
+    /**
+     * Discards the current cart and customer of this request, e.g. after the customer logged in or out.
+     */
+    public synchronized void clear() {
+        cart = null;
+        customer = null;
+    }
+}
@@ -0,0 +1,146 @@
+package controllers.actions;
+
+import com.google.common.base.Optional;
+import controllers.BaseController;
+import play.core.j.JavaResultExtractor;
+import play.libs.F;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.SimpleResult;
+import sphere.Sphere;
+import utils.PageCache;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static play.mvc.Http.HeaderNames.*;
+import static play.mvc.Http.Status.NOT_MODIFIED;
+import static play.mvc.Http.Status.OK;
+import static utils.AsyncUtils.recoverWith;
+
+public class CachedPage extends Action.Simple {
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+    private static final String RETURN_URL_SESSION = "returnUrl";
+
+    /*
+    * Serves the page from the page cache to anonymous customers with an empty cart,
+    * with support for conditional requests, and caches the page if it was not cached yet.
+    * Pages whose action leaves a flash message are not cached, and pages whose action saves
+    * the return URL save it again whenever they are served from the cache
+    * */
+    public F.Promise<SimpleResult> call(final Http.Context ctx) throws Throwable {
+        Http.Context.current.set(ctx);
+        final Optional<String> key = cacheKey(ctx);
+        if (!key.isPresent()) {
+            return delegate.call(ctx);
+        }
+        final Optional<PageCache.Page> cachedPage = PageCache.shared().get(key.get());
+        if (cachedPage.isPresent()) {
+            if (cachedPage.get().savesReturnUrl()) {
+                ctx.session().put(RETURN_URL_SESSION, ctx.request().uri());
+            }
+            return F.Promise.pure(serve(ctx, cachedPage.get()));
+        }
+        final String previousReturnUrl = ctx.session().remove(RETURN_URL_SESSION);
+        final F.Promise<SimpleResult> resultPromise;
+        try {
+            resultPromise = delegate.call(ctx);
+        } catch (Throwable t) {
+            restoreReturnUrl(ctx, previousReturnUrl);
+            throw t;
+        }
+        final F.Promise<SimpleResult> restoredOnFailure = recoverWith(resultPromise, new F.Function<Throwable, F.Promise<SimpleResult>>() {
+            @Override
+            public F.Promise<SimpleResult> apply(final Throwable throwable) throws Throwable {
+                restoreReturnUrl(ctx, previousReturnUrl);
+                return F.Promise.throwing(throwable);
+            }
+        });
+        return restoredOnFailure.map(new F.Function<SimpleResult, SimpleResult>() {
+            @Override
+            public SimpleResult apply(final SimpleResult result) throws Throwable {
+                final boolean savesReturnUrl = ctx.session().containsKey(RETURN_URL_SESSION);
+                restoreReturnUrl(ctx, previousReturnUrl);
+                if (JavaResultExtractor.getStatus(result) != OK || !ctx.flash().isEmpty()) {
+                    return result;
+                }
+                final Map<String, String> headers = JavaResultExtractor.getHeaders(result);
+                final byte[] body = JavaResultExtractor.getBody(result);
+                final PageCache.Page page = PageCache.shared().put(key.get(), headers.get(CONTENT_TYPE), body, savesReturnUrl);
+                return serve(ctx, page);
+            }
+        });
+    }
+
+    /**
+     * Puts back the return URL removed before calling the action, unless the action saved its own one.
+     */
+    private static void restoreReturnUrl(final Http.Context ctx, final String previousReturnUrl) {
+        if (previousReturnUrl != null && !ctx.session().containsKey(RETURN_URL_SESSION)) {
+            ctx.session().put(RETURN_URL_SESSION, previousReturnUrl);
+        }
+    }
+
+    /**
+     * Gets the key of the requested page, which depends on the URL, the language and the country.
+     * @return the key of the page, or absent if the page is specific to this customer and cannot be cached.
+     */
+    private static Optional<String> cacheKey(final Http.Context ctx) {
+        final String country = ctx.session().get(BaseController.COUNTRY_SESSION);
+        final boolean isCacheable = ctx.request().method().equals("GET")
+                && country != null
+                && ctx.flash().isEmpty()
+                && !Sphere.getInstance().isLoggedIn()
+                && Sphere.getInstance().currentCart().getQuantity() < 1;
+        if (isCacheable) {
+            return Optional.of(ctx.request().uri() + "|" + ctx.lang().code() + "|" + country);
+        } else {
+            return Optional.absent();
+        }
+    }
+
+    private static SimpleResult serve(final Http.Context ctx, final PageCache.Page page) {
+        ctx.response().setHeader(ETAG, page.etag());
+        ctx.response().setHeader(LAST_MODIFIED, formatHttpDate(page.lastModified()));
+        ctx.response().setHeader(CACHE_CONTROL, "no-cache");
+        ctx.response().setHeader(VARY, COOKIE + ", " + ACCEPT_LANGUAGE);
+        if (isNotModified(ctx.request(), page)) {
+            return status(NOT_MODIFIED);
+        } else if (page.contentType() != null) {
+            return ok(page.body()).as(page.contentType());
+        } else {
+            return ok(page.body());
+        }
+    }
+
+    private static boolean isNotModified(final Http.Request request, final PageCache.Page page) {
+        final String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.contains(page.etag());
+        }
+        final String ifModifiedSince = request.getHeader(IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            try {
+                final long since = httpDateFormat().parse(ifModifiedSince).getTime();
+                return page.lastModified() / 1000 <= since / 1000;
+            } catch (ParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static String formatHttpDate(final long time) {
+        return httpDateFormat().format(new Date(time));
+    }
+
+    private static SimpleDateFormat httpDateFormat() {
+        final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+}
@@ -0,0 +1,7 @@
+package exceptions;
+
+public class ConcurrentModificationException extends RuntimeException {
+    public ConcurrentModificationException(Throwable cause) {
+        super(cause);
+    }
+}
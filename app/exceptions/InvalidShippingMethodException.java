@@ -10,4 +10,8 @@ public class InvalidShippingMethodException extends RuntimeException {
     public static InvalidShippingMethodException ofWrongId(final String id) {
         return new InvalidShippingMethodException(format("A shipping method with ID=%s does not exist.", id));
     }
+
+    public static InvalidShippingMethodException ofNotApplicable(final String id) {
+        return new InvalidShippingMethodException(format("The shipping method with ID=%s does not apply to the shipping address.", id));
+    }
 }
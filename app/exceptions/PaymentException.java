@@ -0,0 +1,29 @@
+package exceptions;
+
+import static java.lang.String.format;
+
+public class PaymentException extends RuntimeException {
+    private PaymentException(final String message) {
+        super(message);
+    }
+
+    private PaymentException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public static PaymentException ofFailure(final String idempotencyKey, final Throwable cause) {
+        return new PaymentException(format("Payment %s failed.", idempotencyKey), cause);
+    }
+
+    public static PaymentException ofTimeout(final String idempotencyKey, final long timeoutInMillis) {
+        return new PaymentException(format("Payment %s did not finish within %d ms.", idempotencyKey, timeoutInMillis));
+    }
+
+    public static PaymentException ofUncertain(final String idempotencyKey) {
+        return new PaymentException(format("Payment %s timed out and may have been executed, it must be checked before charging again.", idempotencyKey));
+    }
+
+    public static PaymentException ofUnavailable(final String idempotencyKey) {
+        return new PaymentException(format("Payment %s rejected, too many payments in progress.", idempotencyKey));
+    }
+}
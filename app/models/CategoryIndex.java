@@ -0,0 +1,151 @@
+package models;
+
+import com.google.common.base.Optional;
+import io.sphere.client.shop.model.Category;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of the category tree, built once per category tree rebuild.
+ * It provides shared {@link ShopCategory} instances with precomputed paths and children, and constant time lookups
+ * by ID and by slug for each of the given locales.
+ */
+public final class CategoryIndex {
+    private final long version;
+    private final List<Category> source;
+    private final List<ShopCategory> roots;
+    private final Map<String, ShopCategory> categoriesById;
+    private final Map<String, Map<String, ShopCategory>> categoriesBySlug;
+
+    private CategoryIndex(final long version, final List<Category> source, final List<ShopCategory> roots,
+                          final Map<String, ShopCategory> categoriesById,
+                          final Map<String, Map<String, ShopCategory>> categoriesBySlug) {
+        this.version = version;
+        this.source = source;
+        this.roots = roots;
+        this.categoriesById = categoriesById;
+        this.categoriesBySlug = categoriesBySlug;
+    }
+
+    /**
+     * Builds the index of the category tree with the provided roots.
+     * @param version the version of the index, incremented on every rebuild.
+     * @param rootCategories the root categories of the tree.
+     * @param locales the locales for which the categories can be looked up by slug.
+     * @return the index of the category tree.
+     */
+    public static CategoryIndex of(final long version, final List<Category> rootCategories, final List<Locale> locales) {
+        final Map<String, ShopCategory> categoriesById = new HashMap<String, ShopCategory>();
+        final Map<String, Map<String, ShopCategory>> categoriesBySlug = new HashMap<String, Map<String, ShopCategory>>();
+        for (Locale locale : locales) {
+            categoriesBySlug.put(locale.getLanguage(), new HashMap<String, ShopCategory>());
+        }
+        final List<ShopCategory> roots = indexCategories(rootCategories, Collections.<ShopCategory>emptyList(),
+                categoriesById, categoriesBySlug, locales);
+        return new CategoryIndex(version, rootCategories, roots, categoriesById, categoriesBySlug);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Checks whether this index was built from the provided root categories.
+     * @param rootCategories the current root categories of the category tree.
+     * @return true if this index represents the provided tree, false if it needs to be rebuilt.
+     */
+    public boolean isBuiltFrom(final List<Category> rootCategories) {
+        return source == rootCategories;
+    }
+
+    /**
+     * Creates an index with the same categories and version as this one, representing the provided tree.
+     * Used when a rebuilt category tree did not change, so that the shared categories are kept.
+     * @param rootCategories the root categories of the rebuilt tree.
+     * @return the index representing the rebuilt tree.
+     */
+    public CategoryIndex withSource(final List<Category> rootCategories) {
+        return new CategoryIndex(version, rootCategories, roots, categoriesById, categoriesBySlug);
+    }
+
+    /**
+     * Counts the categories that were added, removed or modified in this index compared to the provided one.
+     * @param previous the index of the previous category tree.
+     * @return the amount of categories that differ between both indexes.
+     */
+    public int countChanges(final CategoryIndex previous) {
+        int changes = 0;
+        for (ShopCategory category : categoriesById.values()) {
+            final ShopCategory previousCategory = previous.categoriesById.get(category.getId());
+            if (previousCategory == null || !previousCategory.equals(category)) {
+                changes++;
+            }
+        }
+        for (String previousCategoryId : previous.categoriesById.keySet()) {
+            if (!categoriesById.containsKey(previousCategoryId)) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    public List<ShopCategory> getRoots() {
+        return roots;
+    }
+
+    public Optional<ShopCategory> getById(final String categoryId) {
+        return Optional.fromNullable(categoriesById.get(categoryId));
+    }
+
+    /**
+     * Gets the category with the provided slug.
+     * @param locale the locale corresponding to the category slug.
+     * @param categorySlug the slug of the category.
+     * @return the category with this slug, absent if it does not exist or the locale is not indexed.
+     */
+    public Optional<ShopCategory> getBySlug(final Locale locale, final String categorySlug) {
+        final Map<String, ShopCategory> categoriesInLocale = categoriesBySlug.get(locale.getLanguage());
+        if (categoriesInLocale != null) {
+            return Optional.fromNullable(categoriesInLocale.get(categorySlug));
+        } else {
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Checks whether the categories can be looked up by slug for the provided locale.
+     * @param locale the locale corresponding to the category slug.
+     * @return true if the slugs in this locale are indexed, false otherwise.
+     */
+    public boolean hasLocale(final Locale locale) {
+        return categoriesBySlug.containsKey(locale.getLanguage());
+    }
+
+    public int size() {
+        return categoriesById.size();
+    }
+
+    private static List<ShopCategory> indexCategories(final List<Category> categories, final List<ShopCategory> parentPath,
+                                                      final Map<String, ShopCategory> categoriesById,
+                                                      final Map<String, Map<String, ShopCategory>> categoriesBySlug,
+                                                      final List<Locale> locales) {
+        final List<ShopCategory> shopCategories = new ArrayList<ShopCategory>();
+        for (Category category : categories) {
+            final ShopCategory shopCategory = new ShopCategory(category);
+            final List<ShopCategory> path = new ArrayList<ShopCategory>(parentPath);
+            path.add(shopCategory);
+            final List<ShopCategory> children = indexCategories(category.getChildren(), path,
+                    categoriesById, categoriesBySlug, locales);
+            shopCategory.index(Collections.unmodifiableList(path), Collections.unmodifiableList(children));
+            categoriesById.put(category.getId(), shopCategory);
+            for (Locale locale : locales) {
+                final String slug = category.getSlug(locale);
+                if (slug != null) {
+                    categoriesBySlug.get(locale.getLanguage()).put(slug, shopCategory);
+                }
+            }
+            shopCategories.add(shopCategory);
+        }
+        return shopCategories;
+    }
+}
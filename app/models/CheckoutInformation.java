@@ -0,0 +1,140 @@
+package models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import io.sphere.client.model.CustomObject;
+import org.joda.time.DateTime;
+import play.libs.Json;
+
+import static utils.JsonUtils.objectNode;
+
+/**
+ * A snapshot of the checkout information of a cart or order, as stored in its custom object.
+ * Modifying the information returns a new snapshot that keeps the version of the stored one,
+ * so that all changes can be written at once with optimistic versioning.
+ */
+public final class CheckoutInformation {
+    private static final String PAYMENT_METHOD_KEY = "paymentMethod";
+    private static final String PAYMENT_TOKEN_KEY = "paymentToken";
+    private static final String PAYMENT_TRANSACTION_KEY = "paymentTransaction";
+    private static final String PAYMENT_TIMESTAMP_KEY = "paymentTimestamp";
+    private static final String ORDER_NUMBER_KEY = "orderNumber";
+
+    private final ObjectNode data;
+    private final int version;
+
+    private CheckoutInformation(final ObjectNode data, final int version) {
+        this.data = data;
+        this.version = version;
+    }
+
+    public static CheckoutInformation empty() {
+        return new CheckoutInformation(Json.newObject(), 0);
+    }
+
+    /**
+     * Gets the checkout information stored in the provided custom object.
+     * @param customObject the custom object with the checkout information, or absent if it does not exist yet.
+     * @return the checkout information, or empty information with version 0 if the custom object does not exist.
+     */
+    public static CheckoutInformation of(final Optional<CustomObject> customObject) {
+        if (customObject.isPresent()) {
+            return new CheckoutInformation(objectNode(customObject.get().getValue()), customObject.get().getVersion());
+        } else {
+            return empty();
+        }
+    }
+
+    /**
+     * Gets the version of the stored custom object this snapshot is based on.
+     * @return the version of the custom object, or 0 if it does not exist yet.
+     */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Gets a copy of the whole checkout information in JSON format.
+     * @return the JSON object with the checkout information.
+     */
+    public ObjectNode toJson() {
+        return data.deepCopy();
+    }
+
+    public Optional<String> orderNumber() {
+        return text(ORDER_NUMBER_KEY);
+    }
+
+    public Optional<String> paymentMethod() {
+        return text(PAYMENT_METHOD_KEY);
+    }
+
+    public Optional<String> paymentToken() {
+        return text(PAYMENT_TOKEN_KEY);
+    }
+
+    public Optional<String> paymentTransaction() {
+        return text(PAYMENT_TRANSACTION_KEY);
+    }
+
+    public Optional<DateTime> paymentTimestamp() {
+        return text(PAYMENT_TIMESTAMP_KEY).transform(new Function<String, DateTime>() {
+            @Override
+            public DateTime apply(final String timestamp) {
+                return DateTime.parse(timestamp);
+            }
+        });
+    }
+
+    public CheckoutInformation withOrderNumber(final String orderNumber) {
+        return with(ORDER_NUMBER_KEY, orderNumber);
+    }
+
+    public CheckoutInformation withPaymentMethod(final String paymentMethod, final String token) {
+        return with(PAYMENT_METHOD_KEY, paymentMethod).with(PAYMENT_TOKEN_KEY, token);
+    }
+
+    public CheckoutInformation withPaymentTransaction(final String paymentTransaction) {
+        return with(PAYMENT_TRANSACTION_KEY, paymentTransaction);
+    }
+
+    public CheckoutInformation withPaymentTimestamp(final DateTime timestamp) {
+        return with(PAYMENT_TIMESTAMP_KEY, timestamp.toString());
+    }
+
+    /**
+     * Replaces every field of this checkout information with those of the provided one, keeping the version.
+     * @param other the checkout information to copy the fields from.
+     * @return the updated checkout information.
+     */
+    public CheckoutInformation withAll(final CheckoutInformation other) {
+        final ObjectNode updatedData = toJson();
+        updatedData.putAll(other.toJson());
+        return new CheckoutInformation(updatedData, version);
+    }
+
+    private CheckoutInformation with(final String key, final String value) {
+        final ObjectNode updatedData = toJson();
+        updatedData.put(key, value);
+        return new CheckoutInformation(updatedData, version);
+    }
+
+    private Optional<String> text(final String key) {
+        final JsonNode node = data.path(key);
+        if (node.isMissingNode() || node.isNull()) {
+            return Optional.absent();
+        } else {
+            return Optional.of(node.asText());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CheckoutInformation{" +
+                "data=" + data +
+                ", version=" + version +
+                '}';
+    }
+}
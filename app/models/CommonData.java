@@ -22,10 +22,11 @@ public class CommonData {
     private final ShopRoutes shopRoutes;
     private final RequestParameters requestParameters;
     private final List<String> selectableAttributeNames;
+    private final long categoryTreeVersion;
 
     CommonData(UserContext userContext, List<Lang> availableLang, List<CountryCode> availableCountry, ShopRoutes shopRoutes,
                RequestParameters requestParameters, List<ShopCategory> rootCategories, Optional<ShopCategory> currentCategory,
-               Optional<ShopProduct> currentProduct, List<String> selectableAttributeNames) {
+               Optional<ShopProduct> currentProduct, List<String> selectableAttributeNames, long categoryTreeVersion) {
         this.userContext = userContext;
         this.availableLang = availableLang;
         this.availableCountry = availableCountry;
@@ -35,6 +36,7 @@ public class CommonData {
         this.shopRoutes = shopRoutes;
         this.requestParameters = requestParameters;
         this.selectableAttributeNames = selectableAttributeNames;
+        this.categoryTreeVersion = categoryTreeVersion;
     }
 
     public UserContext context() {
@@ -95,6 +97,14 @@ public class CommonData {
         return rootCategories;
     }
 
+    /**
+     * Gets the version of the category tree the root categories belong to.
+     * @return the version of the category tree.
+     */
+    public long categoryTreeVersion() {
+        return categoryTreeVersion;
+    }
+
     public boolean isInCategory(ShopCategory category) {
         return currentCategory.isPresent() && currentCategory.get().equals(category);
     }
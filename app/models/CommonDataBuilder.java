@@ -13,6 +13,7 @@ public final class CommonDataBuilder {
     private List<Lang> availableLang;
     private List<CountryCode> availableCountry;
     private List<ShopCategory> rootCategories;
+    private long categoryTreeVersion = 0;
     private Optional<ShopCategory> currentCategory = Optional.absent();
     private Optional<ShopProduct> currentProduct = Optional.absent();
     private RequestParameters requestParameters = RequestParameters.empty();
@@ -34,7 +35,7 @@ public final class CommonDataBuilder {
     public CommonData build() {
         ShopRoutes shopRoutes = ShopRoutes.of(userContext.locale(), availableLang);
         return new CommonData(userContext, availableLang, availableCountry, shopRoutes, requestParameters, rootCategories,
-                currentCategory, currentProduct, selectableAttributeNames);
+                currentCategory, currentProduct, selectableAttributeNames, categoryTreeVersion);
     }
 
     public CommonDataBuilder withCategory(ShopCategory category) {
@@ -52,6 +53,11 @@ public final class CommonDataBuilder {
         return this;
     }
 
+    public CommonDataBuilder withCategoryTreeVersion(long categoryTreeVersion) {
+        this.categoryTreeVersion = categoryTreeVersion;
+        return this;
+    }
+
     public CommonDataBuilder withSelectableAttributes(List<String> selectableAttributeNames) {
         this.selectableAttributeNames = selectableAttributeNames;
         return this;
@@ -0,0 +1,63 @@
+package models;
+
+import java.util.List;
+
+/**
+ * A page of the orders of a customer.
+ */
+public class OrderHistory {
+    private final List<ShopOrder> orders;
+    private final int page;
+    private final int pageSize;
+    private final int total;
+
+    OrderHistory(List<ShopOrder> orders, int page, int pageSize, int total) {
+        this.orders = orders;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.total = total;
+    }
+
+    /**
+     * Creates a page of the order history.
+     * @param orders the orders in this page.
+     * @param page the number of this page, starting with 0.
+     * @param pageSize the maximum amount of orders in a page.
+     * @param total the amount of orders of the customer in all pages.
+     * @return the page of the order history.
+     */
+    public static OrderHistory of(List<ShopOrder> orders, int page, int pageSize, int total) {
+        return new OrderHistory(orders, page, pageSize, total);
+    }
+
+    public List<ShopOrder> getOrders() {
+        return orders;
+    }
+
+    public boolean isEmpty() {
+        return orders.isEmpty();
+    }
+
+    /**
+     * Gets the number of this page, starting with 1 as shown to the customer.
+     */
+    public int getPage() {
+        return page + 1;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getTotalPages() {
+        return pageSize > 0 ? (total + pageSize - 1) / pageSize : 0;
+    }
+
+    public boolean hasPreviousPage() {
+        return page > 0;
+    }
+
+    public boolean hasNextPage() {
+        return getPage() < getTotalPages();
+    }
+}
@@ -8,24 +8,24 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ProductList {
-    private final SearchResult<Product> searchResult;
+    private final List<Product> results;
     private final RequestParameters parameters;
 
-    ProductList(SearchResult<Product> searchResult, RequestParameters parameters) {
-        this.searchResult = searchResult;
+    ProductList(List<Product> results, RequestParameters parameters) {
+        this.results = results;
         this.parameters = parameters;
     }
 
     public static ProductList of(SearchResult<Product> searchResult) {
-        return new ProductList(searchResult, RequestParameters.empty());
+        return new ProductList(searchResult.getResults(), RequestParameters.empty());
     }
 
     public static ProductList of(SearchResult<Product> searchResult, RequestParameters parameters) {
-        return new ProductList(searchResult, parameters);
+        return new ProductList(searchResult.getResults(), parameters);
     }
 
-    public SearchResult<Product> get() {
-        return searchResult;
+    public static ProductList of(List<Product> products) {
+        return new ProductList(products, RequestParameters.empty());
     }
 
     public RequestParameters getParameters() {
@@ -34,14 +34,14 @@ public class ProductList {
 
     public List<ShopProduct> getProducts() {
         List<ShopProduct> products = new ArrayList<ShopProduct>();
-        for (Product product : searchResult.getResults()) {
+        for (Product product : results) {
             products.add(ShopProduct.of(product));
         }
         return products;
     }
 
     public boolean isEmpty() {
-        return searchResult.getResults().isEmpty();
+        return results.isEmpty();
     }
 
     public boolean hasNoPriceSelected() {
@@ -12,7 +12,9 @@ import io.sphere.client.filters.FilterParser;
 import io.sphere.client.filters.Filters;
 import io.sphere.client.filters.expressions.FilterExpression;
 
+import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.net.URLEncoder;
 import java.util.*;
 
 public class RequestParameters {
@@ -31,6 +33,8 @@ public class RequestParameters {
 
     protected static final String AMOUNT_LARGE = "24";
 
+    protected static final List<String> SEARCH_PARAMETERS = Arrays.asList(QUERY_PARAM_SORT, QUERY_PARAM_SEARCH, QUERY_PARAM_PRICE, QUERY_PARAM_AMOUNT);
+
     private final Map<String, String[]> queryString;
 
     public final Filters.Fulltext filterSearch = buildSearchFilter();
@@ -122,6 +126,28 @@ public class RequestParameters {
         return Optional.absent();
     }
 
+    /**
+     * Gets a canonical representation of the parameters that affect the search results, i.e. sorted by name
+     * and ignoring any other parameter, such as language, country, display mode or tracking parameters.
+     * Names and values are URL-encoded, so that no value can be mistaken for another parameter.
+     * Two requests with the same canonical representation get the same search results.
+     * @return the canonical representation of the search parameters.
+     */
+    public String toSearchKey() {
+        final SortedMap<String, String[]> searchParameters = new TreeMap<>(queryString);
+        searchParameters.keySet().retainAll(SEARCH_PARAMETERS);
+        final StringBuilder searchKey = new StringBuilder();
+        for (Map.Entry<String, String[]> parameter : searchParameters.entrySet()) {
+            final String[] values = parameter.getValue();
+            if (values != null) {
+                for (String value : values) {
+                    searchKey.append(encode(parameter.getKey())).append('=').append(encode(value)).append('&');
+                }
+            }
+        }
+        return searchKey.toString();
+    }
+
     public static List<String> filterParameters() {
         return Arrays.asList(QUERY_PARAM_SORT, QUERY_PARAM_SEARCH, QUERY_PARAM_PRICE, QUERY_PARAM_DISPLAY, QUERY_PARAM_AMOUNT);
     }
@@ -142,6 +168,14 @@ public class RequestParameters {
         return Arrays.asList("20 to 60", "60 to 100", "100 to 500");
     }
 
+    private static String encode(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     protected static Facets.MoneyAttribute.Ranges buildPriceFacet() {
         List<Range<BigDecimal>> ranges = Collections.singletonList(Range.greaterThan(BigDecimal.ZERO));
         return new Facets.MoneyAttribute.Ranges("variants.price", ranges).setQueryParam(QUERY_PARAM_PRICE);
@@ -0,0 +1,136 @@
+package models;
+
+import com.google.common.base.Optional;
+import com.neovisionaries.i18n.CountryCode;
+import io.sphere.client.model.Money;
+import io.sphere.client.model.Reference;
+import io.sphere.client.shop.model.Location;
+import io.sphere.client.shop.model.ShippingMethod;
+import io.sphere.client.shop.model.ShippingRate;
+import io.sphere.client.shop.model.Zone;
+import io.sphere.client.shop.model.ZoneRate;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of all shipping methods with their zones and rates, indexed by the countries of the zones.
+ * It allows to find the shipping methods applicable to an address and their prices without asking the backend,
+ * as long as the zones of the shipping methods were expanded when fetching them.
+ */
+public final class ShippingCatalogue {
+    private final List<ShippingMethod> methods;
+    private final Map<String, ShippingMethod> methodsById;
+    private final Map<CountryCode, List<LocationRates>> ratesByCountry;
+
+    private ShippingCatalogue(final List<ShippingMethod> methods, final Map<String, ShippingMethod> methodsById,
+                              final Map<CountryCode, List<LocationRates>> ratesByCountry) {
+        this.methods = methods;
+        this.methodsById = methodsById;
+        this.ratesByCountry = ratesByCountry;
+    }
+
+    /**
+     * Builds the catalogue of the provided shipping methods. Zones that are not expanded are ignored.
+     * @param shippingMethods all shipping methods of the project, with their zones expanded.
+     * @return the catalogue of the shipping methods.
+     */
+    public static ShippingCatalogue of(final List<ShippingMethod> shippingMethods) {
+        final Map<String, ShippingMethod> methodsById = new HashMap<String, ShippingMethod>();
+        final Map<CountryCode, List<LocationRates>> ratesByCountry = new HashMap<CountryCode, List<LocationRates>>();
+        for (ShippingMethod method : shippingMethods) {
+            methodsById.put(method.getId(), method);
+            for (ZoneRate zoneRate : method.getZoneRates()) {
+                final Reference<Zone> zone = zoneRate.getZone();
+                if (zone == null || !zone.isExpanded()) {
+                    continue;
+                }
+                for (Location location : zone.get().getLocations()) {
+                    List<LocationRates> ratesInCountry = ratesByCountry.get(location.getCountry());
+                    if (ratesInCountry == null) {
+                        ratesInCountry = new ArrayList<LocationRates>();
+                        ratesByCountry.put(location.getCountry(), ratesInCountry);
+                    }
+                    ratesInCountry.add(new LocationRates(method, location.getState(), zoneRate.getShippingRates()));
+                }
+            }
+        }
+        return new ShippingCatalogue(Collections.unmodifiableList(new ArrayList<ShippingMethod>(shippingMethods)),
+                methodsById, ratesByCountry);
+    }
+
+    public static ShippingCatalogue empty() {
+        return of(Collections.<ShippingMethod>emptyList());
+    }
+
+    /**
+     * Gets all shipping methods of the catalogue, whether they apply to any location or not.
+     * @return the list of all shipping methods.
+     */
+    public List<ShippingMethod> all() {
+        return methods;
+    }
+
+    public Optional<ShippingMethod> getById(final String shippingMethodId) {
+        return Optional.fromNullable(methodsById.get(shippingMethodId));
+    }
+
+    /**
+     * Gets the shipping methods with a rate in the given currency for a zone containing the given location.
+     * @param country the country of the shipping address.
+     * @param state the state of the shipping address, if any.
+     * @param currency the currency of the cart.
+     * @return the applicable shipping methods with their prices, empty when none applies.
+     */
+    public ShippingMethods methodsFor(final CountryCode country, final Optional<String> state, final Currency currency) {
+        final Map<String, ShippingMethod> applicableMethods = new LinkedHashMap<String, ShippingMethod>();
+        final Map<String, Money> prices = new HashMap<String, Money>();
+        for (LocationRates locationRates : ratesIn(country)) {
+            final String methodId = locationRates.method.getId();
+            if (!applicableMethods.containsKey(methodId) && locationRates.contains(state)) {
+                final Optional<Money> price = locationRates.priceIn(currency);
+                if (price.isPresent()) {
+                    applicableMethods.put(methodId, locationRates.method);
+                    prices.put(methodId, price.get());
+                }
+            }
+        }
+        return ShippingMethods.of(new ArrayList<ShippingMethod>(applicableMethods.values()), prices);
+    }
+
+    public int size() {
+        return methods.size();
+    }
+
+    private List<LocationRates> ratesIn(final CountryCode country) {
+        final List<LocationRates> ratesInCountry = ratesByCountry.get(country);
+        return ratesInCountry != null ? ratesInCountry : Collections.<LocationRates>emptyList();
+    }
+
+    /**
+     * The rates of a shipping method for one location of a zone, where a location without state covers the whole country.
+     */
+    private static final class LocationRates {
+        private final ShippingMethod method;
+        private final String state;
+        private final List<ShippingRate> rates;
+
+        private LocationRates(final ShippingMethod method, final String state, final List<ShippingRate> rates) {
+            this.method = method;
+            this.state = state;
+            this.rates = rates;
+        }
+
+        private boolean contains(final Optional<String> addressState) {
+            return state == null || state.equals(addressState.orNull());
+        }
+
+        private Optional<Money> priceIn(final Currency currency) {
+            for (ShippingRate rate : rates) {
+                if (rate.getPrice().getCurrencyCode().equals(currency.getCurrencyCode())) {
+                    return Optional.of(rate.getPrice());
+                }
+            }
+            return Optional.absent();
+        }
+    }
+}
@@ -2,33 +2,71 @@ package models;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.base.Optional;
+import io.sphere.client.model.Money;
 import io.sphere.client.shop.model.ShippingMethod;
 
 public class ShippingMethods {
     private final List<ShippingMethod> methods;
+    private final Map<String, Money> prices;
 
-    ShippingMethods(List<ShippingMethod> methods) {
+    ShippingMethods(List<ShippingMethod> methods, Map<String, Money> prices) {
         this.methods = methods;
+        this.prices = prices;
     }
 
     public static ShippingMethods of(Optional<List<ShippingMethod>> shippingMethods) {
-        return new ShippingMethods(shippingMethods.or(Collections.<ShippingMethod>emptyList()));
+        return new ShippingMethods(shippingMethods.or(Collections.<ShippingMethod>emptyList()), Collections.<String, Money>emptyMap());
+    }
+
+    /**
+     * Creates the shipping methods applicable to a cart, with the price of each of them for that cart.
+     * @param shippingMethods the applicable shipping methods.
+     * @param prices the price of each shipping method, by shipping method ID.
+     * @return the shipping methods with their prices.
+     */
+    public static ShippingMethods of(List<ShippingMethod> shippingMethods, Map<String, Money> prices) {
+        return new ShippingMethods(shippingMethods, prices);
     }
 
     public static ShippingMethods empty() {
-        return new ShippingMethods(Collections.<ShippingMethod>emptyList());
+        return new ShippingMethods(Collections.<ShippingMethod>emptyList(), Collections.<String, Money>emptyMap());
     }
 
     public List<ShippingMethod> all() {
         return methods;
     }
 
+    /**
+     * Gets the shipping method with the provided ID, as long as it applies.
+     * @param shippingMethodId the ID of the shipping method.
+     * @return the shipping method, or absent if there is no applicable shipping method with this ID.
+     */
+    public Optional<ShippingMethod> getById(String shippingMethodId) {
+        for (ShippingMethod method : methods) {
+            if (method.getId().equals(shippingMethodId)) {
+                return Optional.of(method);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Gets the price of the shipping method for the cart these shipping methods apply to.
+     * @param shippingMethod the shipping method.
+     * @return the price of the shipping method, or absent if it is unknown.
+     */
+    public Optional<Money> getPrice(ShippingMethod shippingMethod) {
+        return Optional.fromNullable(prices.get(shippingMethod.getId()));
+    }
+
     @Override
     public String toString() {
         return "ShippingMethods{" +
             "methods=" + methods +
+            ", prices=" + prices +
             '}';
     }
 
@@ -46,12 +84,17 @@ public class ShippingMethods {
         if (methods != null ? !methods.equals(that.methods) : that.methods != null) {
             return false;
         }
+        if (prices != null ? !prices.equals(that.prices) : that.prices != null) {
+            return false;
+        }
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        return methods != null ? methods.hashCode() : 0;
+        int result = methods != null ? methods.hashCode() : 0;
+        result = 31 * result + (prices != null ? prices.hashCode() : 0);
+        return result;
     }
 }
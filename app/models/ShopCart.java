@@ -1,6 +1,7 @@
 package models;
 
 import static utils.PriceUtils.customerPrice;
+import static utils.PriceUtils.totalCustomerPrice;
 
 import java.math.BigDecimal;
 import java.util.Comparator;
@@ -170,11 +171,7 @@ public class ShopCart {
     }
 
     public Money getLineItemsTotalPrice(Optional<ShopCustomer> customer) {
-        Money itemsTotalPrice = new Money(BigDecimal.ZERO, getCurrencyCode());
-        for (LineItem item : getLineItems()) {
-            itemsTotalPrice = itemsTotalPrice.plus(customerPrice(item.getTotalPrice(), item.getTaxRate(), customer));
-        }
-        return itemsTotalPrice;
+        return totalCustomerPrice(getLineItems(), getCurrencyCode(), customer);
     }
 
     public boolean hasTaxesCalculated() {
@@ -4,11 +4,16 @@ import io.sphere.client.model.VersionedId;
 import io.sphere.client.shop.model.Category;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class ShopCategory {
     private final Category category;
+    private List<ShopCategory> path;
+    private List<ShopCategory> children;
+    private Set<String> pathIds;
 
     ShopCategory(Category category) {
         this.category = category;
@@ -18,6 +23,20 @@ public class ShopCategory {
         return new ShopCategory(category);
     }
 
+    /**
+     * Sets the precomputed path and children of this category, as built by the {@link CategoryIndex}.
+     * Must be called before the category is published to other threads.
+     */
+    void index(List<ShopCategory> path, List<ShopCategory> children) {
+        Set<String> pathIds = new HashSet<String>();
+        for (ShopCategory categoryInPath : path) {
+            pathIds.add(categoryInPath.getId());
+        }
+        this.path = path;
+        this.children = children;
+        this.pathIds = pathIds;
+    }
+
     public static List<ShopCategory> ofList(List<Category> categories) {
         List<ShopCategory> shopCategories = new ArrayList<ShopCategory>();
         for (Category category : categories) {
@@ -59,6 +78,9 @@ public class ShopCategory {
     }
 
     public List<ShopCategory> getPath() {
+        if (path != null) {
+            return path;
+        }
         List<ShopCategory> categoriesInPath = new ArrayList<ShopCategory>();
         for (Category categoryInPath : category.getPathInTree()) {
             categoriesInPath.add(new ShopCategory(categoryInPath));
@@ -71,11 +93,14 @@ public class ShopCategory {
         if (categoriesInPath.isEmpty()) {
             return this;
         } else {
-            return getPath().get(0);
+            return categoriesInPath.get(0);
         }
     }
 
     public List<ShopCategory> getChildren() {
+        if (children != null) {
+            return children;
+        }
         List<ShopCategory> children = new ArrayList<ShopCategory>();
         for (Category child : category.getChildren()) {
             children.add(new ShopCategory(child));
@@ -84,10 +109,13 @@ public class ShopCategory {
     }
 
     public boolean hasAsAncestor(ShopCategory otherCategory) {
-        return !this.equals(otherCategory) && getPath().contains(otherCategory);
+        return !this.equals(otherCategory) && hasInPath(otherCategory);
     }
 
     public boolean hasInPath(ShopCategory otherCategory) {
+        if (pathIds != null && otherCategory.pathIds != null) {
+            return pathIds.contains(otherCategory.getId());
+        }
         return getPath().contains(otherCategory);
     }
 
@@ -13,6 +13,7 @@ import io.sphere.client.model.Money;
 import io.sphere.client.model.VersionedId;
 
 import static utils.PriceUtils.customerPrice;
+import static utils.PriceUtils.totalCustomerPrice;
 
 public class ShopOrder {
     private final Order order;
@@ -68,11 +69,7 @@ public class ShopOrder {
     }
 
     public Money getLineItemsTotalPrice(Optional<ShopCustomer> customer) {
-        Money itemsTotalPrice = new Money(BigDecimal.ZERO, getCurrencyCode());
-        for (LineItem item : getLineItems()) {
-            itemsTotalPrice = itemsTotalPrice.plus(customerPrice(item.getTotalPrice(), item.getTaxRate(), customer));
-        }
-        return itemsTotalPrice;
+        return totalCustomerPrice(getLineItems(), getCurrencyCode(), customer);
     }
 
     public Money getTotalPrice(Optional<ShopCustomer> customer) {
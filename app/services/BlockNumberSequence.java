@@ -0,0 +1,179 @@
+package services;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import io.sphere.client.model.CustomObject;
+import play.libs.F;
+import utils.Metrics;
+import utils.RetryPolicy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static utils.AsyncUtils.recoverWith;
+
+/**
+ * A sequence of unique numbers shared by all nodes, stored as the last leased number in a custom object.
+ * Each node leases blocks of consecutive numbers by updating the custom object with optimistic versioning,
+ * retrying with exponential backoff when another node leased a block in the meantime. The numbers of a block
+ * are then handed out from memory, so numbers are unique but not ordered across nodes, and numbers
+ * not handed out when a node stops are never used. A block size of 1 keeps the numbers strictly ordered.
+ * The next block is leased in the background once half of the current block is handed out, so that
+ * callers rarely wait for the backend.
+ */
+public class BlockNumberSequence implements NumberSequence {
+    protected static final int DEFAULT_MAX_ATTEMPTS = 10;
+    protected static final long DEFAULT_BACKOFF = 20;
+    private final CustomObjectService customObjectService;
+    private final String container;
+    private final String key;
+    private final long initialValue;
+    private final int blockSize;
+    private final String metricsPrefix;
+    private final RetryPolicy leaseRetries;
+    private final AtomicReference<Block> block = new AtomicReference<Block>(Block.EMPTY);
+    private final AtomicReference<F.Promise<Block>> leasing = new AtomicReference<F.Promise<Block>>();
+
+    private BlockNumberSequence(final CustomObjectService customObjectService, final String container, final String key,
+                                final long initialValue, final int blockSize) {
+        this.customObjectService = customObjectService;
+        this.container = container;
+        this.key = key;
+        this.initialValue = initialValue;
+        this.blockSize = Math.max(1, blockSize);
+        this.metricsPrefix = "sequences." + key;
+        this.leaseRetries = RetryPolicy.of(metricsPrefix, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF, DEFAULT_BACKOFF << 8);
+    }
+
+    /**
+     * Creates a sequence stored in the custom object with the provided container and key.
+     * @param customObjectService the service to access the custom object.
+     * @param container the container of the custom object.
+     * @param key the key of the custom object.
+     * @param initialValue the value before the first number of the sequence, when the custom object does not exist.
+     * @param blockSize the amount of numbers leased at once by this node.
+     * @return the sequence, with no numbers leased yet.
+     */
+    public static BlockNumberSequence of(final CustomObjectService customObjectService, final String container,
+                                         final String key, final long initialValue, final int blockSize) {
+        return new BlockNumberSequence(customObjectService, container, key, initialValue, blockSize);
+    }
+
+    @Override
+    public F.Promise<Long> next() {
+        final Block currentBlock = block.get();
+        final long number = currentBlock.next.getAndIncrement();
+        if (number <= currentBlock.last) {
+            if (number == currentBlock.prefetchAt) {
+                prefetch();
+            }
+            return F.Promise.pure(number);
+        }
+        return lease(currentBlock).flatMap(new F.Function<Block, F.Promise<Long>>() {
+            @Override
+            public F.Promise<Long> apply(final Block leasedBlock) throws Throwable {
+                return next();
+            }
+        });
+    }
+
+    /**
+     * Replaces the exhausted block with the prefetched one, or with a new lease shared by every concurrent caller.
+     */
+    private F.Promise<Block> lease(final Block exhaustedBlock) {
+        final F.Promise<Block> lease;
+        synchronized (this) {
+            final Block currentBlock = block.get();
+            if (currentBlock != exhaustedBlock) {
+                return F.Promise.pure(currentBlock);
+            }
+            final F.Promise<Block> ongoingLease = leasing.get();
+            lease = ongoingLease != null ? ongoingLease : startLease();
+        }
+        return lease.map(new F.Function<Block, Block>() {
+            @Override
+            public Block apply(final Block leasedBlock) throws Throwable {
+                synchronized (BlockNumberSequence.this) {
+                    if (block.get() == exhaustedBlock) {
+                        leasing.compareAndSet(lease, null);
+                        block.set(leasedBlock);
+                    }
+                    return block.get();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts leasing the next block in the background, unless it is already being leased.
+     */
+    private void prefetch() {
+        synchronized (this) {
+            if (leasing.get() == null) {
+                Metrics.increment(metricsPrefix + ".prefetches");
+                startLease();
+            }
+        }
+    }
+
+    /**
+     * Starts leasing the next block. A failed lease is forgotten before its callers see the failure,
+     * so that the next caller leases again instead of getting the same failure.
+     */
+    private F.Promise<Block> startLease() {
+        final F.Promise<Block> newLease = recoverWith(leaseBlock(), new F.Function<Throwable, F.Promise<Block>>() {
+            @Override
+            public F.Promise<Block> apply(final Throwable throwable) throws Throwable {
+                synchronized (BlockNumberSequence.this) {
+                    leasing.set(null);
+                }
+                throw throwable;
+            }
+        });
+        leasing.set(newLease);
+        return newLease;
+    }
+
+    private F.Promise<Block> leaseBlock() {
+        return leaseRetries.execute(new F.Function<Integer, F.Promise<Block>>() {
+            @Override
+            public F.Promise<Block> apply(final Integer attempt) throws Throwable {
+                return customObjectService.getCustomObject(container, key).flatMap(new F.Function<Optional<CustomObject>, F.Promise<Block>>() {
+                    @Override
+                    public F.Promise<Block> apply(final Optional<CustomObject> customObject) throws Throwable {
+                        final long lastLeased = customObject.isPresent() ? customObject.get().getValue().asLong() : initialValue;
+                        // Version 0 makes sure the custom object is only created once
+                        final int version = customObject.transform(new Function<CustomObject, Integer>() {
+                            @Override
+                            public Integer apply(final CustomObject customObject) {
+                                return customObject.getVersion();
+                            }
+                        }).or(0);
+                        final long last = lastLeased + blockSize;
+                        return customObjectService.setCustomObject(container, key, last, Optional.of(version))
+                                .map(new F.Function<CustomObject, Block>() {
+                                    @Override
+                                    public Block apply(final CustomObject updatedCustomObject) throws Throwable {
+                                        Metrics.increment(metricsPrefix + ".leases");
+                                        return new Block(lastLeased + 1, last, blockSize > 1);
+                                    }
+                                });
+                    }
+                });
+            }
+        });
+    }
+
+    private static final class Block {
+        private static final Block EMPTY = new Block(1, 0, false);
+        private final AtomicLong next;
+        private final long last;
+        private final long prefetchAt;
+
+        private Block(final long first, final long last, final boolean prefetch) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+            this.prefetchAt = prefetch ? first + (last - first) / 2 : Long.MIN_VALUE;
+        }
+    }
+}
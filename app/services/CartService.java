@@ -27,13 +27,23 @@ public interface CartService {
     Optional<VersionedId> currentVersionedId();
 
     /**
-     * Fetches the current cart.
+     * Fetches the current cart. The last known state of the cart is kept in memory, and it is served without
+     * asking the backend as long as it has the version of the cart in the session.
      * @return the promise of the current cart.
      * @deprecated service should not access the session
      */
     @Deprecated
     F.Promise<ShopCart> fetchCurrent();
 
+    /**
+     * Fetches the current cart from the backend, ignoring the state kept in memory,
+     * e.g. when entering the checkout, where the cart must be up to date.
+     * @return the promise of the current cart.
+     * @deprecated service should not access the session
+     */
+    @Deprecated
+    F.Promise<ShopCart> fetchLatest();
+
     /**
      * Fetches the cart with the provided ID.
      * @param id internal identifier of the cart.
@@ -56,20 +66,20 @@ public interface CartService {
     F.Promise<ShopCart> duplicateCart(ShopCart originCart);
 
     /**
-     * Checks whether the provided cart snapshot corresponds to the current cart.
+     * Checks whether the provided cart snapshot corresponds to the provided cart, i.e. the cart was not modified since.
+     * @param cart the cart as it is now, e.g. the latest cart.
      * @param cartSnapshot the cart snapshot of the cart.
-     * @return true if the cart snapshot corresponds to the current cart, false otherwise.
+     * @return true if the cart snapshot corresponds to the cart, false otherwise.
      */
-    boolean canCreateOrder(String cartSnapshot);
+    boolean canCreateOrder(ShopCart cart, String cartSnapshot);
 
     /**
-     * Creates the snapshot ID for the current cart.
+     * Creates the snapshot ID of the provided cart, which identifies the cart and its version.
      * Useful for creating an order from the cart in a secure way.
+     * @param cart the cart to create the snapshot of.
      * @return the generated snapshot ID.
-     * @deprecated service should not access the session
      */
-    @Deprecated
-    String createSnapshot();
+    String createSnapshot(ShopCart cart);
 
     /**
      * Removes all products contained in the provided cart that are outdated and updates their quantities appropriately.
@@ -156,6 +166,7 @@ public interface CartService {
     /**
      * Creates an order from the current cart and with the provided order number.
      * If any line item is not available or the price changed, the affected items are removed and the order is not created.
+     * It is safe to call it again after a failure: if an order with the order number of the cart exists already, it is returned.
      * @param cart the current cart.
      * @param cartSnapshot the cart snapshot of the cart that the user requested to create an order from.
      * @throws sphere.CartModifiedException when the provided cart snapshot does not correspond to the current cart.
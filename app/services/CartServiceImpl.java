@@ -2,7 +2,15 @@ package services;
 
 import java.util.Currency;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import exceptions.ConcurrentModificationException;
 import io.sphere.client.SphereError;
 import io.sphere.client.SphereResult;
 import io.sphere.client.exceptions.OutOfStockException;
@@ -19,27 +27,59 @@ import models.ShopOrder;
 import models.ShopProduct;
 import org.apache.commons.lang3.StringUtils;
 
+import play.Configuration;
 import play.Logger;
+import play.Play;
 import play.libs.F;
+import play.mvc.Http;
 import sphere.Session;
 import sphere.Sphere;
 
 import com.google.common.base.Optional;
 import com.neovisionaries.i18n.CountryCode;
 import sphere.util.Async;
+import utils.Metrics;
+import utils.PromiseCache;
+import utils.RetryPolicy;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import static utils.AsyncUtils.measured;
+import static utils.AsyncUtils.recoverWith;
+
 @Singleton
 public class CartServiceImpl implements CartService {
+    protected static final String SESSION_KEY = "cartSession";
+    protected static final long ACTIVATION_TIMEOUT = 60 * 1000;
+    protected static final long DEFAULT_BATCH_WINDOW = 50;
+    protected static final int DEFAULT_CART_CACHE_SIZE = 10000;
+    protected static final long DEFAULT_CART_CACHE_EXPIRATION = 30 * 60 * 1000;
+    private final PromiseCache<String, ShopCart> activations = PromiseCache.of("carts.activations", 10000, ACTIVATION_TIMEOUT);
     private final Sphere sphere;
     private final CheckoutService checkoutService;
+    private final OrderService orderService;
+    private final CartUpdateBatcher updateBatcher;
+    private final Cache<String, Cart> knownCarts;
+    private final RetryPolicy updateRetries = RetryPolicy.ofConfig("carts.updates");
 
     @Inject
-    public CartServiceImpl(final Sphere sphere, CheckoutService checkoutService) {
+    public CartServiceImpl(final Sphere sphere, CheckoutService checkoutService, OrderService orderService) {
         this.sphere = sphere;
         this.checkoutService = checkoutService;
+        this.orderService = orderService;
+        final Configuration config = Play.application().configuration();
+        this.knownCarts = CacheBuilder.newBuilder()
+                .maximumSize(config.getInt("shop.cache.carts.size", DEFAULT_CART_CACHE_SIZE))
+                .expireAfterAccess(config.getMilliseconds("shop.cache.carts.expiration", DEFAULT_CART_CACHE_EXPIRATION), TimeUnit.MILLISECONDS)
+                .build();
+        final long batchWindow = config.getMilliseconds("shop.cart.updates.batchWindow", DEFAULT_BATCH_WINDOW);
+        this.updateBatcher = CartUpdateBatcher.of(batchWindow, new F.Function2<ShopCart, CartUpdate, F.Promise<ShopCart>>() {
+            @Override
+            public F.Promise<ShopCart> apply(final ShopCart cart, final CartUpdate cartUpdate) throws Throwable {
+                return updateCart(cart, cartUpdate);
+            }
+        });
     }
 
     @Override
@@ -50,9 +90,31 @@ public class CartServiceImpl implements CartService {
 
     @Override
     public F.Promise<ShopCart> fetchCurrent() {
+        // Identify the session before its first cart is created, so that concurrent requests share the creation
+        sessionKey();
+        final Optional<VersionedId> cartId = currentVersionedId();
+        if (cartId.isPresent()) {
+            final Cart knownCart = knownCarts.getIfPresent(cartId.get().getId());
+            if (knownCart != null && knownCart.getVersion() == cartId.get().getVersion()) {
+                Metrics.increment("carts.known.hits");
+                return F.Promise.pure(ShopCart.of(knownCart));
+            }
+            Metrics.increment("carts.known.misses");
+        }
+        return fetchLatest();
+    }
+
+    @Override
+    public F.Promise<ShopCart> fetchLatest() {
+        final Optional<VersionedId> cartId = currentVersionedId();
         return sphere.currentCart().fetchAsync().map(new F.Function<Cart, ShopCart>() {
             @Override
             public ShopCart apply(Cart cart) throws Throwable {
+                if (cartId.isPresent() && cartId.get().getVersion() != cart.getVersion()) {
+                    // Modified outside of this session, e.g. by another node or a backend process
+                    Metrics.increment("carts.known.stale");
+                }
+                remember(cart);
                 return ShopCart.of(cart);
             }
         });
@@ -93,7 +155,13 @@ public class CartServiceImpl implements CartService {
     @Override
     public F.Promise<ShopCart> duplicateCart(final ShopCart originCart) {
         final CartUpdate cartUpdate = originCart.cartUpdateToDuplicateCart();
-        return updateCart(createCartFrom(originCart), cartUpdate)
+        return createCartFrom(originCart)
+                .flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
+                    @Override
+                    public F.Promise<ShopCart> apply(final ShopCart createdCart) throws Throwable {
+                        return updateCart(createdCart, cartUpdate);
+                    }
+                })
                 .flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
                     @Override
                     public F.Promise<ShopCart> apply(final ShopCart targetCart) throws Throwable {
@@ -109,13 +177,13 @@ public class CartServiceImpl implements CartService {
     }
 
     @Override
-    public boolean canCreateOrder(final String cartSnapshot) {
-        return sphere.currentCart().isSafeToCreateOrder(cartSnapshot);
+    public boolean canCreateOrder(final ShopCart cart, final String cartSnapshot) {
+        return createSnapshot(cart).equals(cartSnapshot);
     }
 
     @Override
-    public String createSnapshot() {
-        return sphere.currentCart().createCartSnapshotId();
+    public String createSnapshot(final ShopCart cart) {
+        return cart.getId() + ":" + cart.getVersionedId().getVersion();
     }
 
     @Override
@@ -130,20 +198,32 @@ public class CartServiceImpl implements CartService {
 
     @Override
     public F.Promise<ShopCart> addItem(final ShopCart cart, final ShopProduct product, final int quantity) {
-        CartUpdate cartUpdate = new CartUpdate().addLineItem(quantity, product.getId(), product.getSelectedVariant().getId());
-        return updateCart(cart, cartUpdate);
+        return batchedUpdate(cart, new CartUpdateBatcher.CartChange() {
+            @Override
+            public void applyTo(final CartUpdate cartUpdate) {
+                cartUpdate.addLineItem(quantity, product.getId(), product.getSelectedVariant().getId());
+            }
+        });
     }
 
     @Override
     public F.Promise<ShopCart> updateItem(final ShopCart cart, final String lineItemId, final int quantity) {
-        CartUpdate cartUpdate = new CartUpdate().setLineItemQuantity(lineItemId, quantity);
-        return updateCart(cart, cartUpdate);
+        return batchedUpdate(cart, new CartUpdateBatcher.CartChange() {
+            @Override
+            public void applyTo(final CartUpdate cartUpdate) {
+                cartUpdate.setLineItemQuantity(lineItemId, quantity);
+            }
+        });
     }
 
     @Override
     public F.Promise<ShopCart> removeItem(final ShopCart cart, final String lineItemId) {
-        CartUpdate cartUpdate = new CartUpdate().removeLineItem(lineItemId);
-        return updateCart(cart, cartUpdate);
+        return batchedUpdate(cart, new CartUpdateBatcher.CartChange() {
+            @Override
+            public void applyTo(final CartUpdate cartUpdate) {
+                cartUpdate.removeLineItem(lineItemId);
+            }
+        });
     }
 
     @Override
@@ -206,20 +286,57 @@ public class CartServiceImpl implements CartService {
 
     @Override
     public F.Promise<Optional<ShopOrder>> createOrder(final ShopCart cart, final String cartSnapshot) {
-        return checkoutService.startOrderNumber(cart.getId()).flatMap(new F.Function<String, F.Promise<Optional<ShopOrder>>>() {
+        // The number is stored before creating the order, otherwise a retry could not find the order created with it
+        final F.Promise<Optional<ShopOrder>> order = measured("orders.phases.number", checkoutService.startOrderNumber(cart.getId()))
+                .flatMap(new F.Function<String, F.Promise<Optional<ShopOrder>>>() {
+                    @Override
+                    public F.Promise<Optional<ShopOrder>> apply(final String orderNumber) throws Throwable {
+                        return submitOrder(cart, cartSnapshot, orderNumber);
+                    }
+                });
+        return measured("orders.phases.total", order);
+    }
+
+    /**
+     * Creates the order with the provided order number. When the creation fails for any other reason than invalid
+     * line items, a previous attempt may have created the order already, in which case that order is returned.
+     * @param cart the current cart.
+     * @param cartSnapshot the cart snapshot of the cart that the user requested to create an order from.
+     * @param orderNumber the order number of the order.
+     * @return the promise of the created order if it could be created, absent otherwise.
+     */
+    protected F.Promise<Optional<ShopOrder>> submitOrder(final ShopCart cart, final String cartSnapshot, final String orderNumber) {
+        // The version of the cart makes the backend reject the order if the cart changed since the snapshot was checked
+        final CreateOrderBuilder builder = new CreateOrderBuilder(cart.getVersionedId(), PaymentState.Paid)
+                .setOrderNumber(orderNumber);
+        final F.Promise<Optional<ShopOrder>> createdOrder = measured("orders.phases.create", sphere.currentCart().createOrderAsync(builder))
+                .map(new F.Function<Order, Optional<ShopOrder>>() {
+                    @Override
+                    public Optional<ShopOrder> apply(final Order order) throws Throwable {
+                        return Optional.of(ShopOrder.of(order));
+                    }
+                });
+        return recoverWith(createdOrder, new F.Function<Throwable, F.Promise<Optional<ShopOrder>>>() {
             @Override
-            public F.Promise<Optional<ShopOrder>> apply(String orderNumber) throws Throwable {
-                try {
-                    CreateOrderBuilder builder = new CreateOrderBuilder(cart.getVersionedId(), PaymentState.Paid)
-                            .setCartSnapshotId(cartSnapshot)
-                            .setOrderNumber(orderNumber);
-                    ShopOrder order = ShopOrder.of(sphere.currentCart().createOrder(builder));
-                    return F.Promise.pure(Optional.of(order));
-                } catch (final PriceChangedException pce) {
-                    return handleCreateOrderError(cart, pce.getLineItemIds());
-                } catch (OutOfStockException ose) {
-                    return handleCreateOrderError(cart, ose.getLineItemIds());
+            public F.Promise<Optional<ShopOrder>> apply(final Throwable throwable) throws Throwable {
+                final Optional<PriceChangedException> priceChanged = causeOf(throwable, PriceChangedException.class);
+                final Optional<OutOfStockException> outOfStock = causeOf(throwable, OutOfStockException.class);
+                if (priceChanged.isPresent()) {
+                    return handleCreateOrderError(cart, priceChanged.get().getLineItemIds());
+                } else if (outOfStock.isPresent()) {
+                    return handleCreateOrderError(cart, outOfStock.get().getLineItemIds());
                 }
+                return measured("orders.phases.lookup", orderService.fetchByOrderNumber(orderNumber))
+                        .map(new F.Function<Optional<ShopOrder>, Optional<ShopOrder>>() {
+                            @Override
+                            public Optional<ShopOrder> apply(final Optional<ShopOrder> existingOrder) throws Throwable {
+                                if (existingOrder.isPresent()) {
+                                    Metrics.increment("orders.deduplicated");
+                                    return existingOrder;
+                                }
+                                throw throwable;
+                            }
+                        });
             }
         });
     }
@@ -241,19 +358,28 @@ public class CartServiceImpl implements CartService {
     /**
      * Creates a new empty cart with the basic information (i.e. currency, country and inventory mode) of the provided cart.
      * @param originCart the cart which basic information is copied to the new cart.
-     * @return the new empty cart.
+     * @return the promise of the new empty cart.
      */
-    protected ShopCart createCartFrom(final ShopCart originCart) {
-        Cart createdCart;
+    protected F.Promise<ShopCart> createCartFrom(final ShopCart originCart) {
+        final ListenableFuture<SphereResult<Cart>> createdCart;
         Currency currency = originCart.getCurrency();
         Optional<CountryCode> country = originCart.getCountry();
         Cart.InventoryMode inventoryMode = originCart.getInventoryMode();
         if (country.isPresent()) {
-            createdCart = sphere.client().carts().createCart(currency, country.get(), inventoryMode).execute();
+            createdCart = sphere.client().carts().createCart(currency, country.get(), inventoryMode).executeAsync();
         } else {
-            createdCart = sphere.client().carts().createCart(currency, inventoryMode).execute();
+            createdCart = sphere.client().carts().createCart(currency, inventoryMode).executeAsync();
         }
-        return ShopCart.of(createdCart);
+        return Async.asPlayPromise(createdCart).map(new F.Function<SphereResult<Cart>, ShopCart>() {
+            @Override
+            public ShopCart apply(final SphereResult<Cart> result) throws Throwable {
+                if (result.isSuccess()) {
+                    return ShopCart.of(result.getValue());
+                } else {
+                    throw result.getGenericError();
+                }
+            }
+        });
     }
 
     /**
@@ -266,49 +392,82 @@ public class CartServiceImpl implements CartService {
         if (cartUpdate.isEmpty()) {
             return F.Promise.pure(cart);
         } else {
-            ShopCart activeCart = activateCart(cart);
-            return Async.asPlayPromise(sphere.client().carts().updateCart(activeCart.getVersionedId(), cartUpdate).executeAsync())
-                    .flatMap(new F.Function<SphereResult<Cart>, F.Promise<ShopCart>>() {
+            return updateRetries.execute(new F.Function<Integer, F.Promise<ShopCart>>() {
+                @Override
+                public F.Promise<ShopCart> apply(final Integer attempt) throws Throwable {
+                    final F.Promise<ShopCart> latestCart = attempt == 1 ? activateCart(cart) : refetchCart(cart);
+                    return latestCart.flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
                         @Override
-                        public F.Promise<ShopCart> apply(SphereResult<Cart> result) throws Throwable {
-                            if (result.isSuccess()) {
-                                ShopCart updatedCart = ShopCart.of(result.getValue());
-                                Session.current().putCart(result.getValue());
-                                return F.Promise.pure(updatedCart);
-                            } else {
-                                return handleUpdateError(cart, cartUpdate, result);
-                            }
+                        public F.Promise<ShopCart> apply(final ShopCart activeCart) throws Throwable {
+                            return sendUpdate(activeCart, cartUpdate);
                         }
                     });
+                }
+            });
         }
     }
 
+    private F.Promise<ShopCart> sendUpdate(final ShopCart activeCart, final CartUpdate cartUpdate) {
+        return Async.asPlayPromise(sphere.client().carts().updateCart(activeCart.getVersionedId(), cartUpdate).executeAsync())
+                .map(new F.Function<SphereResult<Cart>, ShopCart>() {
+                    @Override
+                    public ShopCart apply(SphereResult<Cart> result) throws Throwable {
+                        if (result.isSuccess()) {
+                            ShopCart updatedCart = ShopCart.of(result.getValue());
+                            Session.current().putCart(result.getValue());
+                            remember(result.getValue());
+                            return updatedCart;
+                        } else {
+                            throw handleUpdateError(result);
+                        }
+                    }
+                });
+    }
+
+    private F.Promise<ShopCart> refetchCart(final ShopCart cart) {
+        return fetchById(cart.getId()).map(new F.Function<Optional<ShopCart>, ShopCart>() {
+            @Override
+            public ShopCart apply(Optional<ShopCart> updatedCart) throws Throwable {
+                if (updatedCart.isPresent()) {
+                    return updatedCart.get();
+                } else {
+                    throw new RuntimeException("Could not fetch cart for second try update " + cart.getVersionedId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates the cart with the provided change, merged with the other changes of this cart requested meanwhile.
+     * @param cart the cart to which the change is applied.
+     * @param change the change to apply.
+     * @return the promise of the updated cart.
+     */
+    protected F.Promise<ShopCart> batchedUpdate(final ShopCart cart, final CartUpdateBatcher.CartChange change) {
+        return updateBatcher.update(cart, change).map(new F.Function<ShopCart, ShopCart>() {
+            @Override
+            public ShopCart apply(final ShopCart updatedCart) throws Throwable {
+                // The update may have been sent on behalf of another request
+                Session.current().putCart(updatedCart.get());
+                return updatedCart;
+            }
+        });
+    }
+
     /**
      * Handles the errors related to an update cart operation.
-     * In particular, it tries to execute again the update operation when a concurrent modification error occurs.
-     * @param cart the cart to which the update operation is applied.
-     * @param cartUpdate the update operation to apply.
+     * In particular, a concurrent modification error is reported as such, so that the update operation is executed again.
      * @param sphereResult the result of the failed update operation, with the backend related data.
-     * @return the promise of the updated cart.
+     * @return the exception the update operation failed with.
      */
-    protected F.Promise<ShopCart> handleUpdateError(final ShopCart cart, final CartUpdate cartUpdate,
-                                                      final SphereResult<Cart> sphereResult) {
+    protected RuntimeException handleUpdateError(final SphereResult<Cart> sphereResult) {
         SphereBackendException exception = sphereResult.getGenericError();
         for (SphereError error : exception.getErrors()) {
             if (error instanceof SphereError.ConcurrentModification) {
-                return fetchById(cart.getId()).flatMap(new F.Function<Optional<ShopCart>, F.Promise<ShopCart>>() {
-                    @Override
-                    public F.Promise<ShopCart> apply(Optional<ShopCart> updatedCart) throws Throwable {
-                        if (updatedCart.isPresent()) {
-                            return updateCart(updatedCart.get(), cartUpdate);
-                        } else {
-                            throw new RuntimeException("Could not fetch cart for second try update " + cart.getVersionedId());
-                        }
-                    }
-                });
+                return new ConcurrentModificationException(exception);
             }
         }
-        return F.Promise.throwing(exception);
+        return exception;
     }
 
     /**
@@ -328,21 +487,90 @@ public class CartServiceImpl implements CartService {
         });
     }
 
+    private static <T extends Throwable> Optional<T> causeOf(final Throwable throwable, final Class<T> causeClass) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (causeClass.isInstance(cause)) {
+                return Optional.of(causeClass.cast(cause));
+            }
+        }
+        return Optional.absent();
+    }
+
     /**
      * Forces the creation of a current cart.
      * While the current cart is empty, the SDK does not create it in the backend, therefore the ID is empty,
      * and no operation can be performed. If the provided cart is not active, that means it is the current cart
-     * and is being kept only in the application level.
+     * and is being kept only in the application level. Concurrent requests of the same session share the activation,
+     * so that only one cart is created for them.
      * @param cart the cart to activate.
-     * @return the active cart.
+     * @return the promise of the active cart.
      */
-    protected ShopCart activateCart(final ShopCart cart) {
+    protected F.Promise<ShopCart> activateCart(final ShopCart cart) {
         if (cart.isActive()) {
-            return cart;
-        } else {
-            // Force creation of current cart. From the app there are not enough tools to create it manually.
-            Cart updatedCart = sphere.currentCart().update(new CartUpdate());
-            return ShopCart.of(updatedCart);
+            return F.Promise.pure(cart);
+        }
+        final Optional<String> sessionKey = sessionKey();
+        if (!sessionKey.isPresent()) {
+            return createCurrentCart();
+        }
+        final F.Promise<ShopCart> activation = activations.get(sessionKey.get(), new F.Function0<F.Promise<ShopCart>>() {
+            @Override
+            public F.Promise<ShopCart> apply() throws Throwable {
+                return createCurrentCart();
+            }
+        });
+        activation.onRedeem(new F.Callback<ShopCart>() {
+            @Override
+            public void invoke(final ShopCart activeCart) throws Throwable {
+                // Once created, the cart is in the session and a later cart of this session must not reuse it
+                activations.invalidate(sessionKey.get());
+            }
+        });
+        return activation;
+    }
+
+    private F.Promise<ShopCart> createCurrentCart() {
+        // Force creation of current cart. From the app there are not enough tools to create it manually.
+        return sphere.currentCart().updateAsync(new CartUpdate()).map(new F.Function<Cart, ShopCart>() {
+            @Override
+            public ShopCart apply(final Cart activatedCart) throws Throwable {
+                remember(activatedCart);
+                return ShopCart.of(activatedCart);
+            }
+        });
+    }
+
+    /**
+     * Keeps the provided state of the cart in memory, unless a newer state of the same cart is known already.
+     * @param cart the cart as returned by the backend.
+     */
+    protected void remember(final Cart cart) {
+        if (cart.getId() == null || cart.getId().isEmpty()) {
+            return;
+        }
+        final ConcurrentMap<String, Cart> carts = knownCarts.asMap();
+        while (true) {
+            final Cart knownCart = carts.putIfAbsent(cart.getId(), cart);
+            if (knownCart == null || knownCart.getVersion() >= cart.getVersion() || carts.replace(cart.getId(), knownCart, cart)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the key identifying the session of the current request, creating it if the session has none yet.
+     * @return the key of the current session, or absent if there is no current request.
+     */
+    protected static Optional<String> sessionKey() {
+        final Http.Context context = Http.Context.current.get();
+        if (context == null) {
+            return Optional.absent();
+        }
+        String sessionKey = context.session().get(SESSION_KEY);
+        if (sessionKey == null) {
+            sessionKey = UUID.randomUUID().toString();
+            context.session().put(SESSION_KEY, sessionKey);
         }
+        return Optional.of(sessionKey);
     }
 }
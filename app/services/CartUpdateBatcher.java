@@ -0,0 +1,168 @@
+package services;
+
+import com.google.common.base.Predicate;
+import exceptions.ConcurrentModificationException;
+import io.sphere.client.exceptions.SphereBackendException;
+import io.sphere.client.shop.model.CartUpdate;
+import models.ShopCart;
+import play.libs.F;
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static utils.AsyncUtils.recoverWith;
+
+/**
+ * Merges the changes of a cart requested within a short window into a single versioned update, e.g. when the customer
+ * adjusts quantities quickly, so that the backend receives one write instead of several conflicting ones.
+ * Every caller of a batch waits for the same update. If the backend rejects the merged update, e.g. because one
+ * of the changes is invalid, nothing was applied, so each caller falls back to sending its own change alone.
+ * Any other failure is reported to every caller, since the update may have been applied anyway.
+ */
+public final class CartUpdateBatcher {
+
+    /**
+     * Tells whether the backend rejected the update as a bad request, in which case it was not applied.
+     * Concurrent modifications are not considered rejections, as they were already retried.
+     */
+    public static final Predicate<Throwable> ON_REJECTION = new Predicate<Throwable>() {
+        @Override
+        public boolean apply(final Throwable throwable) {
+            for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ConcurrentModificationException) {
+                    return false;
+                } else if (cause instanceof SphereBackendException) {
+                    final int status = ((SphereBackendException) cause).getStatusCode();
+                    return status >= 400 && status < 500;
+                }
+            }
+            return false;
+        }
+    };
+
+    private final long windowInMillis;
+    private final F.Function2<ShopCart, CartUpdate, F.Promise<ShopCart>> updater;
+    private final Predicate<Throwable> isRejection;
+    private final Map<String, Batch> pendingBatches = new HashMap<String, Batch>();
+
+    private CartUpdateBatcher(final long windowInMillis, final F.Function2<ShopCart, CartUpdate, F.Promise<ShopCart>> updater,
+                              final Predicate<Throwable> isRejection) {
+        this.windowInMillis = windowInMillis;
+        this.updater = updater;
+        this.isRejection = isRejection;
+    }
+
+    /**
+     * Creates a batcher that sends the merged changes with the provided function.
+     * @param windowInMillis the time in milliseconds a batch waits for further changes, 0 to send every change alone.
+     * @param updater the function that applies an update to a cart.
+     * @return the batcher, without pending changes.
+     */
+    public static CartUpdateBatcher of(final long windowInMillis, final F.Function2<ShopCart, CartUpdate, F.Promise<ShopCart>> updater) {
+        return of(windowInMillis, updater, ON_REJECTION);
+    }
+
+    /**
+     * Creates a batcher that sends the merged changes with the provided function.
+     * @param windowInMillis the time in milliseconds a batch waits for further changes, 0 to send every change alone.
+     * @param updater the function that applies an update to a cart.
+     * @param isRejection the predicate telling whether a failed update was rejected without being applied.
+     * @return the batcher, without pending changes.
+     */
+    public static CartUpdateBatcher of(final long windowInMillis, final F.Function2<ShopCart, CartUpdate, F.Promise<ShopCart>> updater,
+                                       final Predicate<Throwable> isRejection) {
+        return new CartUpdateBatcher(windowInMillis, updater, isRejection);
+    }
+
+    /**
+     * Adds the change to the pending batch of the cart, starting a new batch if there is none.
+     * @param cart the cart to which the change is applied.
+     * @param change the change to apply.
+     * @return the promise of the cart with the change applied, along with every other change of the batch.
+     */
+    public F.Promise<ShopCart> update(final ShopCart cart, final CartChange change) {
+        if (windowInMillis <= 0 || !cart.isActive()) {
+            return send(cart, change.toUpdate());
+        }
+        final F.Promise<ShopCart> batchUpdate;
+        synchronized (pendingBatches) {
+            Batch batch = pendingBatches.get(cart.getId());
+            if (batch == null) {
+                batch = new Batch(cart);
+                batch.result = schedule(batch);
+                pendingBatches.put(cart.getId(), batch);
+            }
+            batch.changes.add(change);
+            batchUpdate = batch.result;
+        }
+        return recoverWith(batchUpdate, new F.Function<Throwable, F.Promise<ShopCart>>() {
+            @Override
+            public F.Promise<ShopCart> apply(final Throwable throwable) throws Throwable {
+                if (!isRejection.apply(throwable)) {
+                    throw throwable;
+                }
+                Metrics.increment("carts.batches.fallbacks");
+                return send(cart, change.toUpdate());
+            }
+        });
+    }
+
+    private F.Promise<ShopCart> schedule(final Batch batch) {
+        return F.Promise.delayed(new F.Function0<Batch>() {
+            @Override
+            public Batch apply() throws Throwable {
+                synchronized (pendingBatches) {
+                    pendingBatches.remove(batch.cart.getId());
+                }
+                return batch;
+            }
+        }, windowInMillis, TimeUnit.MILLISECONDS).flatMap(new F.Function<Batch, F.Promise<ShopCart>>() {
+            @Override
+            public F.Promise<ShopCart> apply(final Batch closedBatch) throws Throwable {
+                final CartUpdate cartUpdate = new CartUpdate();
+                for (CartChange change : closedBatch.changes) {
+                    change.applyTo(cartUpdate);
+                }
+                Metrics.increment("carts.batches.updates");
+                Metrics.add("carts.batches.changes", closedBatch.changes.size());
+                return send(closedBatch.cart, cartUpdate);
+            }
+        });
+    }
+
+    private F.Promise<ShopCart> send(final ShopCart cart, final CartUpdate cartUpdate) {
+        try {
+            return updater.apply(cart, cartUpdate);
+        } catch (Throwable t) {
+            return F.Promise.throwing(t);
+        }
+    }
+
+    /**
+     * A change of a cart, which adds its update actions to the update of the batch it belongs to.
+     */
+    public abstract static class CartChange {
+
+        public abstract void applyTo(CartUpdate cartUpdate);
+
+        private CartUpdate toUpdate() {
+            final CartUpdate cartUpdate = new CartUpdate();
+            applyTo(cartUpdate);
+            return cartUpdate;
+        }
+    }
+
+    private static final class Batch {
+        private final ShopCart cart;
+        private final List<CartChange> changes = new ArrayList<CartChange>();
+        private F.Promise<ShopCart> result;
+
+        private Batch(final ShopCart cart) {
+            this.cart = cart;
+        }
+    }
+}
@@ -25,12 +25,21 @@ public interface CategoryService {
 
     /**
      * Gets the root categories of the project.
+     * The returned list is shared between requests and cannot be modified.
      * @return the list of root categories.
      */
     List<ShopCategory> getRoots();
 
+    /**
+     * Gets the version of the category tree, which changes whenever categories are added, removed or modified.
+     * @return the current version of the category tree.
+     */
+    long getVersion();
+
     /**
      * Fetches all categories from the backend again, refreshing the cached categories with latest version.
+     * The categories are also refreshed periodically in the background, this triggers a refresh right away,
+     * e.g. after the categories were modified.
      */
     void refresh();
 }
@@ -2,41 +2,67 @@ package services;
 
 import com.google.common.base.Optional;
 import io.sphere.client.shop.model.Category;
+import models.CategoryIndex;
 import models.ShopCategory;
+import play.Configuration;
+import play.Logger;
+import play.Play;
+import play.i18n.Lang;
+import play.libs.Akka;
+import play.libs.F;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 import sphere.Sphere;
+import sphere.util.Async;
+import utils.Metrics;
+import utils.PageCache;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Serves the categories from an index of the category tree, which is built once and shared by all requests
+ * until the category tree is rebuilt. The tree and its index are rebuilt in the background with the configured interval,
+ * the index being replaced only when categories were actually added, removed or modified.
+ */
 @Singleton
 public class CategoryServiceImpl implements CategoryService {
+    protected static final long DEFAULT_CATEGORIES_REFRESH = 5 * 60 * 1000;
+    private static final String METRICS_PREFIX = "categories";
     private final Sphere sphere;
+    private final long refreshInMillis;
+    private final AtomicReference<CategoryIndex> index = new AtomicReference<CategoryIndex>();
+    private final AtomicLong indexVersion = new AtomicLong();
 
     @Inject
     public CategoryServiceImpl(final Sphere sphere) {
         this.sphere = sphere;
+        final Configuration config = Play.application().configuration();
+        this.refreshInMillis = config.getMilliseconds("shop.categories.refresh", DEFAULT_CATEGORIES_REFRESH);
+        this.index.set(rebuildIndex(null, sphere.categories().getRoots()));
+        schedule();
     }
 
     @Override
     public Optional<ShopCategory> getById(final String categoryId) {
-        Category category = sphere.categories().getById(categoryId);
-        if (category != null) {
-            ShopCategory fetchedCategory = ShopCategory.of(category);
-            return Optional.of(fetchedCategory);
-        } else {
-            return Optional.absent();
-        }
+        return index().getById(categoryId);
     }
 
     @Override
     public Optional<ShopCategory> getBySlug(final Locale locale, final String categorySlug) {
-        Category category = sphere.categories().getBySlug(categorySlug, locale);
+        final CategoryIndex currentIndex = index();
+        if (currentIndex.hasLocale(locale)) {
+            return currentIndex.getBySlug(locale, categorySlug);
+        }
+        final Category category = sphere.categories().getBySlug(categorySlug, locale);
         if (category != null) {
-            ShopCategory fetchedCategory = ShopCategory.of(category);
-            return Optional.of(fetchedCategory);
+            return currentIndex.getById(category.getId()).or(Optional.of(ShopCategory.of(category)));
         } else {
             return Optional.absent();
         }
@@ -44,15 +70,108 @@ public class CategoryServiceImpl implements CategoryService {
 
     @Override
     public List<ShopCategory> getRoots() {
-        List<ShopCategory> roots = new ArrayList<ShopCategory>();
-        for (Category root : sphere.categories().getRoots()) {
-            roots.add(ShopCategory.of(root));
-        }
-        return roots;
+        return index().getRoots();
+    }
+
+    @Override
+    public long getVersion() {
+        return index().version();
     }
 
     @Override
     public void refresh() {
-        sphere.categories().rebuildAsync();
+        swapIndexWhenRebuilt(Async.asPlayPromise(sphere.categories().rebuildAsync()));
+    }
+
+    /**
+     * Gets the index of the current category tree. Readers never build it, it is replaced in the background
+     * once the category tree has been rebuilt.
+     * @return the index of the current category tree.
+     */
+    protected CategoryIndex index() {
+        return index.get();
+    }
+
+    /**
+     * Replaces the index once the category tree has been rebuilt, keeping the previous one if the rebuild failed.
+     */
+    private <T> void swapIndexWhenRebuilt(final F.Promise<T> rebuild) {
+        rebuild.onRedeem(new F.Callback<T>() {
+            @Override
+            public void invoke(final T tree) throws Throwable {
+                synchronized (index) {
+                    final CategoryIndex currentIndex = index.get();
+                    final List<Category> rootCategories = sphere.categories().getRoots();
+                    if (!currentIndex.isBuiltFrom(rootCategories)) {
+                        index.set(rebuildIndex(currentIndex, rootCategories));
+                    }
+                }
+            }
+        });
+        rebuild.onFailure(new F.Callback<Throwable>() {
+            @Override
+            public void invoke(final Throwable throwable) throws Throwable {
+                Metrics.increment(METRICS_PREFIX + ".failures");
+                Logger.warn("Could not rebuild the category tree, keeping previous one", throwable);
+            }
+        });
+    }
+
+    /**
+     * Builds the index of the rebuilt category tree, keeping the previous categories if nothing changed.
+     * The duration of the rebuild, the amount of categories and changes, and the time of the last rebuild
+     * are recorded in {@link Metrics}.
+     */
+    private CategoryIndex rebuildIndex(final CategoryIndex previousIndex, final List<Category> rootCategories) {
+        final long start = System.currentTimeMillis();
+        final CategoryIndex builtIndex = CategoryIndex.of(indexVersion.incrementAndGet(), rootCategories, availableLocales());
+        final CategoryIndex newIndex;
+        if (previousIndex == null) {
+            newIndex = builtIndex;
+        } else {
+            final int changes = builtIndex.countChanges(previousIndex);
+            Metrics.add(METRICS_PREFIX + ".changes", changes);
+            if (changes > 0) {
+                Logger.info("Category tree changed, " + changes + " categories updated");
+                PageCache.shared().invalidateAll();
+                newIndex = builtIndex;
+            } else {
+                newIndex = previousIndex.withSource(rootCategories);
+            }
+        }
+        final long now = System.currentTimeMillis();
+        Metrics.increment(METRICS_PREFIX + ".refreshes");
+        Metrics.set(METRICS_PREFIX + ".refreshDuration", now - start);
+        Metrics.set(METRICS_PREFIX + ".lastSuccess", now);
+        Metrics.set(METRICS_PREFIX + ".size", newIndex.size());
+        Metrics.set(METRICS_PREFIX + ".version", newIndex.version());
+        return newIndex;
+    }
+
+    /**
+     * Periodically triggers a rebuild of the category tree, so that readers never wait for the backend
+     * nor for the index to be built.
+     */
+    private void schedule() {
+        final FiniteDuration interval = Duration.create(refreshInMillis, TimeUnit.MILLISECONDS);
+        Akka.system().scheduler().schedule(interval, interval, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    Metrics.increment(METRICS_PREFIX + ".failures");
+                    Logger.warn("Could not refresh the category tree, keeping previous one", e);
+                }
+            }
+        }, Akka.system().dispatcher());
+    }
+
+    private static List<Locale> availableLocales() {
+        final List<Locale> locales = new ArrayList<Locale>();
+        for (Lang lang : Lang.availables()) {
+            locales.add(new Locale(lang.language()));
+        }
+        return locales;
     }
 }
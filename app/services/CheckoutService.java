@@ -1,6 +1,8 @@
 package services;
 
+import models.CheckoutInformation;
 import models.ShopCart;
+import io.sphere.client.shop.model.Address;
 import models.ShippingMethods;
 
 import org.joda.time.DateTime;
@@ -11,18 +13,37 @@ import com.google.common.base.Optional;
 
 import io.sphere.client.model.CustomObject;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Provides an interface to communicate with the Sphere platform to manage all data related to the checkout process.
  */
 public interface CheckoutService {
 
     /**
-     * Gets all shipping methods that are applied to the provided cart.
+     * Name of the number sequence used to assign order numbers.
+     */
+    String ORDER_NUMBERS = "orderNumbers";
+
+    /**
+     * Gets all shipping methods that are applied to the provided cart, with their prices for the cart.
+     * They are computed from the shipping catalogue, according to the shipping address and currency of the cart,
+     * or to the country of the cart as long as it has no shipping address.
      * @param cart the cart to fetch the shipping methods for.
-     * @return the promise of the shipping methods applied (empty when none could be applied, i.e. no shipping address).
+     * @return the promise of the shipping methods applied (empty when none could be applied, i.e. no shipping address nor country).
      */
     F.Promise<ShippingMethods> getShippingMethods(ShopCart cart);
 
+    /**
+     * Gets all shipping methods that are applied to the provided cart when shipped to the provided address,
+     * with their prices for the cart. They are computed from the shipping catalogue.
+     * @param cart the cart to fetch the shipping methods for.
+     * @param shippingAddress the address the cart is going to be shipped to.
+     * @return the promise of the shipping methods applied (empty when none could be applied).
+     */
+    F.Promise<ShippingMethods> getShippingMethods(ShopCart cart, Address shippingAddress);
+
     /**
      * Copies the checkout information from the cart identified with the origin ID, to the cart with the target ID.
      * @param originCartId internal identifier of the cart or order which information wants to be copied to another cart.
@@ -32,6 +53,23 @@ public interface CheckoutService {
      */
     F.Promise<CustomObject> duplicateInformation(String originCartId, String targetCartId);
 
+    /**
+     * Gets the checkout information of the cart or order with the provided ID.
+     * The information is fetched at most once per request, later calls get the same or updated information.
+     * @param cartId internal identifier of the cart or order.
+     * @return the promise of the checkout information, empty if none was stored yet.
+     */
+    F.Promise<CheckoutInformation> getCheckoutInformation(String cartId);
+
+    /**
+     * Updates the checkout information of the cart or order with the provided ID, writing all changes at once.
+     * If the information was modified concurrently, the changes are applied again on the latest information.
+     * @param cartId internal identifier of the cart or order.
+     * @param update the function applying the changes to the current checkout information.
+     * @return the promise of the updated custom object representing the checkout information.
+     */
+    F.Promise<CustomObject> updateCheckoutInformation(String cartId, F.Function<CheckoutInformation, CheckoutInformation> update);
+
     /**
      * Gets the order number of the cart or order with the provided ID.
      * @param cartId internal identifier of the cart or order.
@@ -49,14 +87,16 @@ public interface CheckoutService {
 
     /**
      * Gets the order number of the cart or order with the provided ID.
-     * If the order number does not exist, a unique number is assigned to this checkout.
+     * If the order number does not exist, a unique number is assigned to this checkout. When concurrent checkouts
+     * of the same cart assign a number at once, the number stored first is kept and returned to all of them.
      * @param cartId internal identifier of the cart or order.
-     * @return the promise of the order number of the cart or order.
+     * @return the promise of the order number stored for the cart or order.
      */
     F.Promise<String> startOrderNumber(String cartId);
 
     /**
      * Gets a free order number to be used.
+     * Numbers are unique across all nodes, but only ordered across nodes when leased one by one.
      * @return a free order number.
      */
     F.Promise<String> generateFreeOrderNumber();
@@ -83,6 +123,13 @@ public interface CheckoutService {
      */
     F.Promise<Optional<String>> getPaymentMethod(String cartId);
 
+    /**
+     * Gets the payment methods of the carts or orders with the provided IDs, fetching all of them with a single query.
+     * @param cartIds internal identifiers of the carts or orders.
+     * @return the promise of the payment methods by cart or order ID, without those that have no payment method.
+     */
+    F.Promise<Map<String, String>> getPaymentMethods(List<String> cartIds);
+
     /**
      * Gets the payment token of the cart or order with the provided ID.
      * @param cartId internal identifier of the cart or order.
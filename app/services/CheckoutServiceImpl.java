@@ -1,105 +1,140 @@
 package services;
 
-import static utils.JsonUtils.convertToNewFormat;
+import static utils.AsyncUtils.recoverWith;
 import static utils.JsonUtils.convertToOldFormat;
-import static utils.JsonUtils.objectNode;
 
-import com.google.common.base.Function;
-import io.sphere.client.shop.model.ShippingMethod;
+import com.neovisionaries.i18n.CountryCode;
+import io.sphere.client.shop.model.Address;
+import models.CheckoutInformation;
+import models.ShippingCatalogue;
 import models.ShopCart;
 import models.ShippingMethods;
 
 import org.joda.time.DateTime;
 
 import play.libs.F;
-import play.libs.Json;
+import play.mvc.Http;
 import sphere.Sphere;
+import utils.Metrics;
+import utils.RetryPolicy;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Optional;
 
 import io.sphere.client.model.CustomObject;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Stores the checkout information of each cart in a custom object. The information is fetched at most once
+ * per request and cart, and every update is written at once with optimistic versioning, retrying on conflicts.
+ */
 @Singleton
 public class CheckoutServiceImpl implements CheckoutService {
-    protected static final int INITIAL_ORDER_NUMBER = 10000;
-
-    protected static final String GLOBAL_CONTAINER = "globalInfo";
-    protected static final String GLOBAL_ORDER_NUMBER_KEY = "lastOrderNumber";
-
     protected static final String CHECKOUT_CONTAINER = "checkoutInfo";
-    protected static final String CHECKOUT_PAYMENT_METHOD_KEY = "paymentMethod";
-    protected static final String CHECKOUT_PAYMENT_TOKEN_KEY = "paymentToken";
-    protected static final String CHECKOUT_PAYMENT_TRANSACTION_KEY = "paymentTransaction";
-    protected static final String CHECKOUT_PAYMENT_TIMESTAMP_KEY = "paymentTimestamp";
-    protected static final String CHECKOUT_ORDER_NUMBER_KEY = "orderNumber";
+    private static final String CONTEXT_KEY_PREFIX = "checkoutInfo:";
 
     protected final Sphere sphere;
     private final CustomObjectService customObjectService;
+    private final ShippingMethodService shippingMethodService;
+    private final NumberSequence orderNumbers;
+    private final RetryPolicy updateRetries;
 
     @Inject
-    public CheckoutServiceImpl(final Sphere sphere, final CustomObjectService customObjectService) {
+    public CheckoutServiceImpl(final Sphere sphere, final CustomObjectService customObjectService,
+                               final ShippingMethodService shippingMethodService,
+                               @Named(ORDER_NUMBERS) final NumberSequence orderNumbers) {
         this.sphere = sphere;
         this.customObjectService = customObjectService;
+        this.shippingMethodService = shippingMethodService;
+        this.orderNumbers = orderNumbers;
+        this.updateRetries = RetryPolicy.ofConfig("checkout.info");
     }
 
     @Override
-    public F.Promise<ShippingMethods> getShippingMethods(ShopCart cart) {
-        if (cart.getShippingAddress().isPresent()) {
-            return sphere.shippingMethods().forCart(cart.getId()).fetchAsync()
-                    .map(new F.Function<Optional<List<ShippingMethod>>, ShippingMethods>() {
-                        @Override
-                        public ShippingMethods apply(Optional<List<ShippingMethod>> shippingMethods) throws Throwable {
-                            return ShippingMethods.of(shippingMethods);
-                        }
-                    });
+    public F.Promise<ShippingMethods> getShippingMethods(final ShopCart cart) {
+        final Optional<Address> shippingAddress = cart.getShippingAddress();
+        if (shippingAddress.isPresent()) {
+            return getShippingMethods(cart, shippingAddress.get());
+        } else if (cart.getCountry().isPresent()) {
+            return getShippingMethods(cart, cart.getCountry().get(), Optional.<String>absent());
         }
         return F.Promise.pure(ShippingMethods.empty());
     }
 
+    @Override
+    public F.Promise<ShippingMethods> getShippingMethods(final ShopCart cart, final Address shippingAddress) {
+        return getShippingMethods(cart, shippingAddress.getCountry(), Optional.fromNullable(shippingAddress.getState()));
+    }
+
+    private F.Promise<ShippingMethods> getShippingMethods(final ShopCart cart, final CountryCode country, final Optional<String> state) {
+        return shippingMethodService.getCatalogue().map(new F.Function<ShippingCatalogue, ShippingMethods>() {
+            @Override
+            public ShippingMethods apply(final ShippingCatalogue catalogue) throws Throwable {
+                return catalogue.methodsFor(country, state, cart.getCurrency());
+            }
+        });
+    }
+
     @Override
     public F.Promise<CustomObject> duplicateInformation(final String originCartId, final String targetCartId) {
-        return getCheckoutInformation(originCartId).flatMap(new F.Function<Optional<CustomObject>, F.Promise<CustomObject>>() {
+        return getCheckoutInformation(originCartId).flatMap(new F.Function<CheckoutInformation, F.Promise<CustomObject>>() {
             @Override
-            public F.Promise<CustomObject> apply(Optional<CustomObject> customObject) throws Throwable {
-                ObjectNode info;
-                if (customObject.isPresent()) {
-                    info = objectNode(customObject.get().getValue());
-                } else {
-                    info = Json.newObject();
-                }
-                return setCheckoutInformation(targetCartId, info);
+            public F.Promise<CustomObject> apply(final CheckoutInformation originInfo) throws Throwable {
+                return updateCheckoutInformation(targetCartId, new F.Function<CheckoutInformation, CheckoutInformation>() {
+                    @Override
+                    public CheckoutInformation apply(final CheckoutInformation targetInfo) throws Throwable {
+                        return targetInfo.withAll(originInfo);
+                    }
+                });
             }
         });
     }
 
+    @Override
+    public F.Promise<CheckoutInformation> getCheckoutInformation(final String cartId) {
+        final Http.Context context = Http.Context.current.get();
+        if (context == null) {
+            return fetchCheckoutInformation(cartId);
+        }
+        synchronized (context.args) {
+            final String contextKey = CONTEXT_KEY_PREFIX + cartId;
+            @SuppressWarnings("unchecked")
+            F.Promise<CheckoutInformation> info = (F.Promise<CheckoutInformation>) context.args.get(contextKey);
+            if (info == null) {
+                info = fetchCheckoutInformation(cartId);
+                context.args.put(contextKey, info);
+            } else {
+                Metrics.increment("checkout.info.reused");
+            }
+            return info;
+        }
+    }
+
     @Override
     public F.Promise<Optional<String>> getOrderNumber(final String cartId) {
-        return getCheckoutInformation(cartId).map(new F.Function<Optional<CustomObject>, Optional<String>>() {
+        return getCheckoutInformation(cartId).map(new F.Function<CheckoutInformation, Optional<String>>() {
             @Override
-            public Optional<String> apply(Optional<CustomObject> customObject) throws Throwable {
-                if (customObject.isPresent()) {
-                    JsonNode checkoutInfo = convertToNewFormat(customObject.get().getValue());
-                    JsonNode orderNumberNode = checkoutInfo.path(CHECKOUT_ORDER_NUMBER_KEY);
-                    if (!orderNumberNode.isMissingNode()) {
-                        return Optional.of(orderNumberNode.asText());
-                    }
-                }
-                return Optional.absent();
+            public Optional<String> apply(final CheckoutInformation info) throws Throwable {
+                return info.orderNumber();
             }
         });
     }
 
     @Override
     public F.Promise<CustomObject> setOrderNumber(final String cartId, final String orderNumber) {
-        ObjectNode json = Json.newObject();
-        json.put(CHECKOUT_ORDER_NUMBER_KEY, orderNumber);
-        return setCheckoutInformation(cartId, json);
+        return updateCheckoutInformation(cartId, new F.Function<CheckoutInformation, CheckoutInformation>() {
+            @Override
+            public CheckoutInformation apply(final CheckoutInformation info) throws Throwable {
+                return info.withOrderNumber(orderNumber);
+            }
+        });
     }
 
     @Override
@@ -112,11 +147,19 @@ public class CheckoutServiceImpl implements CheckoutService {
                 } else {
                     return generateFreeOrderNumber().flatMap(new F.Function<String, F.Promise<String>>() {
                         @Override
-                        public F.Promise<String> apply(String uniqueOrderNumber) throws Throwable {
-                            return setOrderNumber(cartId, uniqueOrderNumber).map(new F.Function<CustomObject, String>() {
+                        public F.Promise<String> apply(final String uniqueOrderNumber) throws Throwable {
+                            // A concurrent checkout may have stored its number in the meantime, which must be kept
+                            // so that the cart is never charged with two different order numbers
+                            final F.Promise<CustomObject> storedInfo = updateCheckoutInformation(cartId, new F.Function<CheckoutInformation, CheckoutInformation>() {
+                                @Override
+                                public CheckoutInformation apply(final CheckoutInformation info) throws Throwable {
+                                    return info.orderNumber().isPresent() ? info : info.withOrderNumber(uniqueOrderNumber);
+                                }
+                            });
+                            return storedInfo.map(new F.Function<CustomObject, String>() {
                                 @Override
-                                public String apply(CustomObject customObject) throws Throwable {
-                                    return customObject.getValue().path(CHECKOUT_ORDER_NUMBER_KEY).asText();
+                                public String apply(final CustomObject customObject) throws Throwable {
+                                    return CheckoutInformation.of(Optional.of(customObject)).orderNumber().get();
                                 }
                             });
                         }
@@ -128,171 +171,224 @@ public class CheckoutServiceImpl implements CheckoutService {
 
     @Override
     public F.Promise<String> generateFreeOrderNumber() {
-        return getLastUsedOrderNumber().flatMap(new F.Function<Optional<CustomObject>, F.Promise<String>>() {
+        return orderNumbers.next().map(new F.Function<Long, String>() {
             @Override
-            public F.Promise<String> apply(Optional<CustomObject> customObject) throws Throwable {
-                int lastOrderNumber = INITIAL_ORDER_NUMBER;
-                if (customObject.isPresent()) {
-                    lastOrderNumber = customObject.get().getValue().asInt();
-                }
-                final Optional<Integer> customObjectVersion = customObject.transform(new Function<CustomObject, Integer>() {
-                    @Override
-                    public Integer apply(final CustomObject customObject) {
-                        return customObject.getVersion();
-                    }
-                });
-                return setLastUsedOrderNumber(lastOrderNumber + 1, customObjectVersion)
-                        .map(new F.Function<CustomObject, String>() {
-                            @Override
-                            public String apply(final CustomObject customObject) throws Throwable {
-                                return customObject.getValue().asText();
-                            }
-                        });
+            public String apply(final Long orderNumber) throws Throwable {
+                return String.valueOf(orderNumber);
             }
         });
     }
 
     @Override
     public F.Promise<Optional<String>> getPaymentTransaction(final String cartId) {
-        return getCheckoutInformation(cartId).map(new F.Function<Optional<CustomObject>, Optional<String>>() {
+        return getCheckoutInformation(cartId).map(new F.Function<CheckoutInformation, Optional<String>>() {
             @Override
-            public Optional<String> apply(Optional<CustomObject> customObject) throws Throwable {
-                if (customObject.isPresent()) {
-                    JsonNode checkoutInfo = convertToNewFormat(customObject.get().getValue());
-                    JsonNode paymentTransactionNode = checkoutInfo.path(CHECKOUT_PAYMENT_TRANSACTION_KEY);
-                    if (!paymentTransactionNode.isMissingNode()) {
-                        return Optional.of(paymentTransactionNode.asText());
-                    }
-                }
-                return Optional.absent();
+            public Optional<String> apply(final CheckoutInformation info) throws Throwable {
+                return info.paymentTransaction();
             }
         });
     }
 
     @Override
     public F.Promise<CustomObject> setPaymentTransaction(final String cartId, final String paymentTransaction) {
-        ObjectNode node = Json.newObject();
-        node.put(CHECKOUT_PAYMENT_TRANSACTION_KEY, paymentTransaction);
-        return setCheckoutInformation(cartId, node);
+        return updateCheckoutInformation(cartId, new F.Function<CheckoutInformation, CheckoutInformation>() {
+            @Override
+            public CheckoutInformation apply(final CheckoutInformation info) throws Throwable {
+                return info.withPaymentTransaction(paymentTransaction);
+            }
+        });
     }
 
     @Override
     public F.Promise<Optional<String>> getPaymentMethod(final String cartId) {
-        return getCheckoutInformation(cartId).map(new F.Function<Optional<CustomObject>, Optional<String>>() {
+        return getCheckoutInformation(cartId).map(new F.Function<CheckoutInformation, Optional<String>>() {
             @Override
-            public Optional<String> apply(Optional<CustomObject> customObject) throws Throwable {
-                if (customObject.isPresent()) {
-                    JsonNode checkoutInfo = convertToNewFormat(customObject.get().getValue());
-                    JsonNode paymentMethodNode = checkoutInfo.path(CHECKOUT_PAYMENT_METHOD_KEY);
-                    if (!paymentMethodNode.isMissingNode()) {
-                        return Optional.of(paymentMethodNode.asText());
-                    }
-                }
-                return Optional.absent();
+            public Optional<String> apply(final CheckoutInformation info) throws Throwable {
+                return info.paymentMethod();
             }
         });
-
     }
 
     @Override
-    public F.Promise<Optional<String>> getPaymentToken(final String cartId) {
-        return getCheckoutInformation(cartId).map(new F.Function<Optional<CustomObject>, Optional<String>>() {
+    public F.Promise<Map<String, String>> getPaymentMethods(final List<String> cartIds) {
+        return getCheckoutInformation(cartIds).map(new F.Function<Map<String, CheckoutInformation>, Map<String, String>>() {
             @Override
-            public Optional<String> apply(Optional<CustomObject> customObject) throws Throwable {
-                if (customObject.isPresent()) {
-                    JsonNode checkoutInfo = convertToNewFormat(customObject.get().getValue());
-                    JsonNode paymentTokenNode = checkoutInfo.path(CHECKOUT_PAYMENT_TOKEN_KEY);
-                    if (!paymentTokenNode.isMissingNode()) {
-                        return Optional.of(paymentTokenNode.asText());
+            public Map<String, String> apply(final Map<String, CheckoutInformation> infos) throws Throwable {
+                final Map<String, String> paymentMethods = new HashMap<String, String>();
+                for (Map.Entry<String, CheckoutInformation> info : infos.entrySet()) {
+                    final Optional<String> paymentMethod = info.getValue().paymentMethod();
+                    if (paymentMethod.isPresent()) {
+                        paymentMethods.put(info.getKey(), paymentMethod.get());
                     }
                 }
-                return Optional.absent();
+                return paymentMethods;
             }
         });
+    }
 
+    @Override
+    public F.Promise<Optional<String>> getPaymentToken(final String cartId) {
+        return getCheckoutInformation(cartId).map(new F.Function<CheckoutInformation, Optional<String>>() {
+            @Override
+            public Optional<String> apply(final CheckoutInformation info) throws Throwable {
+                return info.paymentToken();
+            }
+        });
     }
 
     @Override
-    public F.Promise<CustomObject> setPaymentMethod(final String cartId, final String paymentMethod, String token) {
-        ObjectNode json = Json.newObject();
-        json.put(CHECKOUT_PAYMENT_METHOD_KEY, paymentMethod);
-        json.put(CHECKOUT_PAYMENT_TOKEN_KEY, token);
-        return setCheckoutInformation(cartId, json);
+    public F.Promise<CustomObject> setPaymentMethod(final String cartId, final String paymentMethod, final String token) {
+        return updateCheckoutInformation(cartId, new F.Function<CheckoutInformation, CheckoutInformation>() {
+            @Override
+            public CheckoutInformation apply(final CheckoutInformation info) throws Throwable {
+                return info.withPaymentMethod(paymentMethod, token);
+            }
+        });
     }
 
     @Override
     public F.Promise<Optional<DateTime>> getPaymentTimestamp(final String cartId) {
-        return getCheckoutInformation(cartId).map(new F.Function<Optional<CustomObject>, Optional<DateTime>>() {
+        return getCheckoutInformation(cartId).map(new F.Function<CheckoutInformation, Optional<DateTime>>() {
             @Override
-            public Optional<DateTime> apply(Optional<CustomObject> customObject) throws Throwable {
-                if (customObject.isPresent()) {
-                    JsonNode checkoutInfo = convertToNewFormat(customObject.get().getValue());
-                    JsonNode timestampNode = checkoutInfo.path(CHECKOUT_PAYMENT_TIMESTAMP_KEY);
-                    if (!timestampNode.isMissingNode()) {
-                        DateTime timestamp = DateTime.parse(timestampNode.asText());
-                        return Optional.of(timestamp);
-                    }
-                }
-                return Optional.absent();
+            public Optional<DateTime> apply(final CheckoutInformation info) throws Throwable {
+                return info.paymentTimestamp();
             }
         });
     }
 
     @Override
     public F.Promise<CustomObject> setPaymentTimestamp(final String cartId, final DateTime timestamp) {
-        ObjectNode json = Json.newObject();
-        json.put(CHECKOUT_PAYMENT_TIMESTAMP_KEY, timestamp.toString());
-        return setCheckoutInformation(cartId, json);
+        return updateCheckoutInformation(cartId, new F.Function<CheckoutInformation, CheckoutInformation>() {
+            @Override
+            public CheckoutInformation apply(final CheckoutInformation info) throws Throwable {
+                return info.withPaymentTimestamp(timestamp);
+            }
+        });
     }
 
-    /**
-     * Fetches the checkout information of the cart or order with the provided ID.
-     * @param cartId internal identifier of the cart or order.
-     * @return the custom object representing the checkout information, or absent if it does not exist.
-     */
-    protected F.Promise<Optional<CustomObject>> getCheckoutInformation(final String cartId) {
-        return customObjectService.getCustomObject(CHECKOUT_CONTAINER, cartId);
+    @Override
+    public F.Promise<CustomObject> updateCheckoutInformation(final String cartId,
+                                                            final F.Function<CheckoutInformation, CheckoutInformation> update) {
+        final F.Promise<CustomObject> updatedCustomObject = updateRetries.execute(new F.Function<Integer, F.Promise<CustomObject>>() {
+            @Override
+            public F.Promise<CustomObject> apply(final Integer attempt) throws Throwable {
+                final F.Promise<CheckoutInformation> latestInfo = attempt == 1 ? getCheckoutInformation(cartId) : fetchCheckoutInformation(cartId);
+                return latestInfo.flatMap(new F.Function<CheckoutInformation, F.Promise<CustomObject>>() {
+                    @Override
+                    public F.Promise<CustomObject> apply(final CheckoutInformation info) throws Throwable {
+                        return writeCheckoutInformation(cartId, info, update);
+                    }
+                });
+            }
+        });
+        final Http.Context context = Http.Context.current.get();
+        if (context != null) {
+            // Later reads in this request get the updated information without fetching it again
+            final F.Promise<CheckoutInformation> updatedInfo = recoverWith(updatedCustomObject
+                    .map(new F.Function<CustomObject, CheckoutInformation>() {
+                        @Override
+                        public CheckoutInformation apply(final CustomObject customObject) throws Throwable {
+                            return CheckoutInformation.of(Optional.of(customObject));
+                        }
+                    }), new F.Function<Throwable, F.Promise<CheckoutInformation>>() {
+                        @Override
+                        public F.Promise<CheckoutInformation> apply(final Throwable throwable) throws Throwable {
+                            return fetchCheckoutInformation(cartId);
+                        }
+                    });
+            synchronized (context.args) {
+                context.args.put(CONTEXT_KEY_PREFIX + cartId, updatedInfo);
+            }
+        }
+        return updatedCustomObject;
     }
 
     /**
-     * Updates the checkout information of the cart or order with the provided ID.
-     * The method will only replace the data provided with the object node.
-     * @param cartId internal identifier of the cart or order.
-     * @param node the object node that contains the updated information for the checkout.
-     * @return the promise of the custom object that contains the updated checkout information.
+     * Gets the checkout information of the carts or orders with the provided IDs. The information not fetched yet
+     * in this request is fetched with a single query, and kept for the rest of the request.
+     * @param cartIds internal identifiers of the carts or orders.
+     * @return the promise of the checkout information by cart or order ID, empty for those without information.
      */
-    protected F.Promise<CustomObject> setCheckoutInformation(final String cartId, final ObjectNode node) {
-        return getCheckoutInformation(cartId).flatMap(new F.Function<Optional<CustomObject>, F.Promise<CustomObject>>() {
-            @Override
-            public F.Promise<CustomObject> apply(Optional<CustomObject> customObject) throws Throwable {
-                final ObjectNode info;
-                if (customObject.isPresent()) {
-                    info = objectNode(customObject.get().getValue());
-                } else {
-                    info = Json.newObject();
+    protected F.Promise<Map<String, CheckoutInformation>> getCheckoutInformation(final List<String> cartIds) {
+        final Http.Context context = Http.Context.current.get();
+        final Map<String, F.Promise<CheckoutInformation>> infos = new LinkedHashMap<String, F.Promise<CheckoutInformation>>();
+        final List<String> missingCartIds = new ArrayList<String>();
+        if (context != null) {
+            synchronized (context.args) {
+                for (String cartId : cartIds) {
+                    @SuppressWarnings("unchecked")
+                    final F.Promise<CheckoutInformation> info =
+                            (F.Promise<CheckoutInformation>) context.args.get(CONTEXT_KEY_PREFIX + cartId);
+                    if (info != null) {
+                        infos.put(cartId, info);
+                    } else {
+                        missingCartIds.add(cartId);
+                    }
                 }
-                info.putAll(node);
-                Optional<Integer> version = Optional.absent();
-                return customObjectService.setCustomObject(CHECKOUT_CONTAINER, cartId, convertToOldFormat(node), version);
             }
-        });
+        } else {
+            missingCartIds.addAll(cartIds);
+        }
+        if (!missingCartIds.isEmpty()) {
+            final F.Promise<Map<String, CustomObject>> customObjects =
+                    customObjectService.getCustomObjects(CHECKOUT_CONTAINER, missingCartIds);
+            for (final String cartId : missingCartIds) {
+                final F.Promise<CheckoutInformation> info = customObjects.map(new F.Function<Map<String, CustomObject>, CheckoutInformation>() {
+                    @Override
+                    public CheckoutInformation apply(final Map<String, CustomObject> fetchedCustomObjects) throws Throwable {
+                        return CheckoutInformation.of(Optional.fromNullable(fetchedCustomObjects.get(cartId)));
+                    }
+                });
+                infos.put(cartId, info);
+                if (context != null) {
+                    synchronized (context.args) {
+                        context.args.put(CONTEXT_KEY_PREFIX + cartId, info);
+                    }
+                }
+            }
+        }
+        final List<String> orderedCartIds = new ArrayList<String>(infos.keySet());
+        return F.Promise.sequence(new ArrayList<F.Promise<? extends CheckoutInformation>>(infos.values()))
+                .map(new F.Function<List<CheckoutInformation>, Map<String, CheckoutInformation>>() {
+                    @Override
+                    public Map<String, CheckoutInformation> apply(final List<CheckoutInformation> fetchedInfos) throws Throwable {
+                        final Map<String, CheckoutInformation> infosByCartId = new HashMap<String, CheckoutInformation>();
+                        for (int i = 0; i < orderedCartIds.size(); i++) {
+                            infosByCartId.put(orderedCartIds.get(i), fetchedInfos.get(i));
+                        }
+                        return infosByCartId;
+                    }
+                });
     }
 
     /**
-     * Gets the global custom object with the last used order number.
-     * @return the promise of the global custom object with the last used order number, or absent if it does not exist.
+     * Fetches the checkout information of the cart or order with the provided ID from the backend.
+     * @param cartId internal identifier of the cart or order.
+     * @return the promise of the checkout information, empty if it does not exist yet.
      */
-    protected F.Promise<Optional<CustomObject>> getLastUsedOrderNumber() {
-        return customObjectService.getCustomObject(GLOBAL_CONTAINER, GLOBAL_ORDER_NUMBER_KEY);
+    protected F.Promise<CheckoutInformation> fetchCheckoutInformation(final String cartId) {
+        return customObjectService.getCustomObject(CHECKOUT_CONTAINER, cartId)
+                .map(new F.Function<Optional<CustomObject>, CheckoutInformation>() {
+                    @Override
+                    public CheckoutInformation apply(final Optional<CustomObject> customObject) throws Throwable {
+                        return CheckoutInformation.of(customObject);
+                    }
+                });
     }
 
     /**
-     * Sets the global custom object with the provided last used order number.
-     * @param orderNumber last used order number to be set for the global custom object.
-     * @param version expected version of the global custom object.
-     * @return the promise of the global custom object with the last used order number set.
+     * Writes the updated checkout information of the cart or order with the provided ID, expecting the version
+     * of the information it is based on.
+     * @param cartId internal identifier of the cart or order.
+     * @param info the latest known checkout information.
+     * @param update the function applying the changes to the checkout information.
+     * @throws exceptions.ConcurrentModificationException if the information was modified in the meantime.
+     * @return the promise of the custom object that contains the updated checkout information.
      */
-    protected F.Promise<CustomObject> setLastUsedOrderNumber(int orderNumber, Optional<Integer> version) {
-        return customObjectService.setCustomObject(GLOBAL_CONTAINER, GLOBAL_ORDER_NUMBER_KEY, orderNumber, version);
+    protected F.Promise<CustomObject> writeCheckoutInformation(final String cartId, final CheckoutInformation info,
+                                                               final F.Function<CheckoutInformation, CheckoutInformation> update) throws Throwable {
+        final CheckoutInformation updatedInfo = update.apply(info);
+        return customObjectService.setCustomObject(CHECKOUT_CONTAINER, cartId,
+                convertToOldFormat(updatedInfo.toJson()), Optional.of(info.version()));
     }
 }
@@ -4,6 +4,9 @@ import com.google.common.base.Optional;
 import io.sphere.client.model.CustomObject;
 import play.libs.F;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface CustomObjectService {
 
     /**
@@ -14,12 +17,22 @@ public interface CustomObjectService {
      */
     F.Promise<Optional<CustomObject>> getCustomObject(String container, String key);
 
+    /**
+     * Fetches many custom objects of the same container at once.
+     * @param container to identify the custom objects.
+     * @param keys to identify each custom object.
+     * @return the promise of the custom objects by key, without the keys of custom objects that do not exist.
+     */
+    F.Promise<Map<String, CustomObject>> getCustomObjects(String container, Collection<String> keys);
+
     /**
      * Updates a custom object with the provided information.
      * @param container to identify the custom object.
      * @param key to identify the custom object.
      * @param data the information to set to the custom object.
+     * @param version expected version of the custom object, or absent to overwrite it regardless of its version.
      * @return the promise of the updated custom object that contains the provided information.
+     * @throws exceptions.ConcurrentModificationException if the custom object was modified since the expected version
      */
     <T> F.Promise<CustomObject> setCustomObject(String container, String key, T data, Optional<Integer>version);
 }
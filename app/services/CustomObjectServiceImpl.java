@@ -1,10 +1,13 @@
 package services;
 
 import com.google.common.base.Optional;
+import exceptions.ConcurrentModificationException;
 import io.sphere.client.CommandRequest;
+import io.sphere.client.SphereError;
 import io.sphere.client.SphereResult;
 import io.sphere.client.exceptions.SphereBackendException;
 import io.sphere.client.model.CustomObject;
+import io.sphere.client.model.QueryResult;
 import play.Logger;
 import play.libs.F;
 import sphere.Sphere;
@@ -12,9 +15,13 @@ import sphere.util.Async;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.*;
 
 @Singleton
 public class CustomObjectServiceImpl implements CustomObjectService {
+    /** Maximum amount of keys fetched with a single query, to keep the query URL short */
+    protected static final int KEYS_PER_QUERY = 50;
+
     protected final Sphere sphere;
 
     @Inject
@@ -26,6 +33,28 @@ public class CustomObjectServiceImpl implements CustomObjectService {
         return sphere.customObjects().get(container, key).fetchAsync();
     }
 
+    public F.Promise<Map<String, CustomObject>> getCustomObjects(final String container, final Collection<String> keys) {
+        final List<String> distinctKeys = new ArrayList<String>(new LinkedHashSet<String>(keys));
+        final List<F.Promise<? extends QueryResult<CustomObject>>> queries = new ArrayList<F.Promise<? extends QueryResult<CustomObject>>>();
+        for (int from = 0; from < distinctKeys.size(); from += KEYS_PER_QUERY) {
+            final List<String> keysInQuery = distinctKeys.subList(from, Math.min(from + KEYS_PER_QUERY, distinctKeys.size()));
+            queries.add(Async.asPlayPromise(sphere.client().customObjects().query()
+                    .where(keysPredicate(container, keysInQuery)).pageSize(keysInQuery.size()).fetchAsync()));
+        }
+        return F.Promise.sequence(queries).map(new F.Function<List<QueryResult<CustomObject>>, Map<String, CustomObject>>() {
+            @Override
+            public Map<String, CustomObject> apply(final List<QueryResult<CustomObject>> results) throws Throwable {
+                final Map<String, CustomObject> customObjects = new HashMap<String, CustomObject>();
+                for (QueryResult<CustomObject> result : results) {
+                    for (CustomObject customObject : result.getResults()) {
+                        customObjects.put(customObject.getKey(), customObject);
+                    }
+                }
+                return customObjects;
+            }
+        });
+    }
+
     public <T> F.Promise<CustomObject> setCustomObject(final String container, final String key, final T data,
                                                        final Optional<Integer> version) {
         CommandRequest<CustomObject> request;
@@ -40,8 +69,12 @@ public class CustomObjectServiceImpl implements CustomObjectService {
                 if (sphereResult.isSuccess()) {
                     return sphereResult.getValue();
                 } else {
-                    // TODO Handle concurrent modification
                     SphereBackendException exception = sphereResult.getGenericError();
+                    for (SphereError error : exception.getErrors()) {
+                        if (error instanceof SphereError.ConcurrentModification) {
+                            throw new ConcurrentModificationException(exception);
+                        }
+                    }
                     Logger.error(String.format("Custom object %s %s could not be updated with %s: %s",
                             container, key, data.toString(), exception.getMessage()));
                     throw exception;
@@ -49,4 +82,18 @@ public class CustomObjectServiceImpl implements CustomObjectService {
             }
         });
     }
+
+    /**
+     * Builds the query predicate matching the custom objects of the container with any of the provided keys.
+     */
+    private static String keysPredicate(final String container, final List<String> keys) {
+        final StringBuilder quotedKeys = new StringBuilder();
+        for (String key : keys) {
+            if (quotedKeys.length() > 0) {
+                quotedKeys.append(", ");
+            }
+            quotedKeys.append('"').append(key.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return String.format("container=\"%s\" and key in (%s)", container, quotedKeys);
+    }
 }
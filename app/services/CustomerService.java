@@ -15,6 +15,11 @@ import io.sphere.client.shop.model.CustomerToken;
  */
 public interface CustomerService {
 
+    /**
+     * Name of the number sequence used to assign customer numbers.
+     */
+    String CUSTOMER_NUMBERS = "customerNumbers";
+
     /**
      * Fetches the current customer.
      * @return the promise of the current customer, or of absent when not logged in.
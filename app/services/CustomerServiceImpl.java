@@ -3,9 +3,9 @@ package services;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 
+import exceptions.ConcurrentModificationException;
 import exceptions.DuplicateEmailException;
 import exceptions.PasswordNotMatchException;
-import io.sphere.client.model.CustomObject;
 import io.sphere.client.shop.model.*;
 import models.ShopCart;
 import models.ShopCustomer;
@@ -13,6 +13,7 @@ import play.libs.F;
 import sphere.Session;
 import sphere.Sphere;
 import sphere.util.Async;
+import utils.RetryPolicy;
 
 import com.google.common.base.Optional;
 
@@ -25,29 +26,27 @@ import io.sphere.client.shop.SignInResult;
 import io.sphere.client.shop.SignUpBuilder;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.List;
 
 @Singleton
 public class CustomerServiceImpl implements CustomerService {
-    protected static final int INITIAL_CUSTOMER_NUMBER = 1000;
-
-    protected static final String GLOBAL_CONTAINER = "globalInfo";
-    protected static final String GLOBAL_CUSTOMER_NUMBER_KEY = "lastCustomerNumber";
-
     protected static final String CUSTOMER_GROUP_ID = "customerGroup";
 
     protected static final int TOKEN_EXPIRATION_TIME = 60 * 24;
 
     private final Sphere sphere;
     private final CartService cartService;
-    private final CustomObjectService customObjectService;
+    private final NumberSequence customerNumbers;
+    private final RetryPolicy updateRetries = RetryPolicy.ofConfig("customers.updates");
 
     @Inject
-    public CustomerServiceImpl(final Sphere sphere, final CartService cartService, final CustomObjectService customObjectService) {
+    public CustomerServiceImpl(final Sphere sphere, final CartService cartService,
+                               @Named(CUSTOMER_NUMBERS) final NumberSequence customerNumbers) {
         this.sphere = sphere;
         this.cartService = cartService;
-        this.customObjectService = customObjectService;
+        this.customerNumbers = customerNumbers;
     }
 
     @Override
@@ -115,22 +114,10 @@ public class CustomerServiceImpl implements CustomerService {
 
     @Override
     public F.Promise<String> generateFreeCustomerNumber() {
-        return getLastUsedCustomerNumber().flatMap(new F.Function<Optional<CustomObject>, F.Promise<String>>() {
+        return customerNumbers.next().map(new F.Function<Long, String>() {
             @Override
-            public F.Promise<String> apply(Optional<CustomObject> customObject) throws Throwable {
-                int lastCustomerNumber = INITIAL_CUSTOMER_NUMBER;
-                int version = 0;
-                if (customObject.isPresent()) {
-                    lastCustomerNumber = customObject.get().getValue().asInt();
-                    version = customObject.get().getVersion();
-                }
-                return setLastUsedCustomerNumber(lastCustomerNumber + 1, Optional.of(version))
-                        .map(new F.Function<CustomObject, String>() {
-                            @Override
-                            public String apply(CustomObject customObject) throws Throwable {
-                                return customObject.getValue().asText();
-                            }
-                        });
+            public String apply(final Long customerNumber) throws Throwable {
+                return String.valueOf(customerNumber);
             }
         });
     }
@@ -286,47 +273,62 @@ public class CustomerServiceImpl implements CustomerService {
         if (customerUpdate.isEmpty()) {
             return F.Promise.pure(customer);
         } else {
-            return Async.asPlayPromise(sphere.client().customers().update(customer.getVersionedId(), customerUpdate).executeAsync())
-                    .flatMap(new F.Function<SphereResult<Customer>, F.Promise<ShopCustomer>>() {
+            return updateRetries.execute(new F.Function<Integer, F.Promise<ShopCustomer>>() {
+                @Override
+                public F.Promise<ShopCustomer> apply(final Integer attempt) throws Throwable {
+                    final F.Promise<ShopCustomer> latestCustomer = attempt == 1 ? F.Promise.pure(customer) : refetchCustomer(customer);
+                    return latestCustomer.flatMap(new F.Function<ShopCustomer, F.Promise<ShopCustomer>>() {
                         @Override
-                        public F.Promise<ShopCustomer> apply(SphereResult<Customer> result) throws Throwable {
-                            if (result.isSuccess()) {
-                                ShopCustomer updatedCustomer = ShopCustomer.of(result.getValue());
-                                return F.Promise.pure(updatedCustomer);
-                            } else {
-                                return handleUpdateError(customer, customerUpdate, result);
-                            }
+                        public F.Promise<ShopCustomer> apply(final ShopCustomer currentCustomer) throws Throwable {
+                            return sendUpdate(currentCustomer, customerUpdate);
                         }
                     });
+                }
+            });
         }
     }
 
+    private F.Promise<ShopCustomer> sendUpdate(final ShopCustomer customer, final CustomerUpdate customerUpdate) {
+        return Async.asPlayPromise(sphere.client().customers().update(customer.getVersionedId(), customerUpdate).executeAsync())
+                .map(new F.Function<SphereResult<Customer>, ShopCustomer>() {
+                    @Override
+                    public ShopCustomer apply(SphereResult<Customer> result) throws Throwable {
+                        if (result.isSuccess()) {
+                            return ShopCustomer.of(result.getValue());
+                        } else {
+                            throw handleUpdateError(result);
+                        }
+                    }
+                });
+    }
+
+    private F.Promise<ShopCustomer> refetchCustomer(final ShopCustomer customer) {
+        return fetchById(customer.getId()).map(new F.Function<Optional<ShopCustomer>, ShopCustomer>() {
+            @Override
+            public ShopCustomer apply(Optional<ShopCustomer> updatedCustomer) throws Throwable {
+                if (updatedCustomer.isPresent()) {
+                    return updatedCustomer.get();
+                } else {
+                    throw new RuntimeException("Could not fetch customer for second try update " + customer.getVersionedId());
+                }
+            }
+        });
+    }
+
     /**
      * Handles the errors related to an update customer operation.
-     * In particular, it tries to execute again the update operation when a concurrent modification error occurs.
-     * @param customer the customer to which the update operation is applied.
-     * @param customerUpdate the update operation to apply.
+     * In particular, a concurrent modification error is reported as such, so that the update operation is executed again.
      * @param sphereResult the result of the failed update operation, with the backend related data.
-     * @return the promise of the updated customer.
+     * @return the exception the update operation failed with.
      */
-    protected F.Promise<ShopCustomer> handleUpdateError(final ShopCustomer customer, final CustomerUpdate customerUpdate,
-                                                      final SphereResult<Customer> sphereResult) {
+    protected RuntimeException handleUpdateError(final SphereResult<Customer> sphereResult) {
         SphereBackendException exception = sphereResult.getGenericError();
         for (SphereError error : exception.getErrors()) {
             if (error instanceof SphereError.ConcurrentModification) {
-                return fetchById(customer.getId()).flatMap(new F.Function<Optional<ShopCustomer>, F.Promise<ShopCustomer>>() {
-                    @Override
-                    public F.Promise<ShopCustomer> apply(Optional<ShopCustomer> updatedCustomer) throws Throwable {
-                        if (updatedCustomer.isPresent()) {
-                            return updateCustomer(updatedCustomer.get(), customerUpdate);
-                        } else {
-                            throw new RuntimeException("Could not fetch customer for second try update " + customer.getVersionedId());
-                        }
-                    }
-                });
+                return new ConcurrentModificationException(exception);
             }
         }
-        return F.Promise.throwing(exception);
+        return exception;
     }
 
     /**
@@ -407,7 +409,7 @@ public class CustomerServiceImpl implements CustomerService {
      * @return the promise of the fixed current cart.
      */
     protected F.Promise<ShopCart> fixAnonymousCart() {
-        return cartService.fetchCurrent()
+        return cartService.fetchLatest()
             .flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
                 @Override
                 public F.Promise<ShopCart> apply(ShopCart anonymousCart) throws Throwable {
@@ -422,7 +424,7 @@ public class CustomerServiceImpl implements CustomerService {
      * @return the promise of the new current cart.
      */
     protected F.Promise<ShopCart> resetAnonymousCart() {
-        return cartService.fetchCurrent()
+        return cartService.fetchLatest()
             .flatMap(new F.Function<ShopCart, F.Promise<ShopCart>>() {
                 @Override
                 public F.Promise<ShopCart> apply(ShopCart anonymousCart) throws Throwable {
@@ -438,22 +440,4 @@ public class CustomerServiceImpl implements CustomerService {
                 }
             });
     }
-
-    /**
-     * Gets the global custom object with the last used customer number.
-     * @return the promise of the global custom object with the last used customer number, or absent if it does not exist.
-     */
-    protected F.Promise<Optional<CustomObject>> getLastUsedCustomerNumber() {
-        return customObjectService.getCustomObject(GLOBAL_CONTAINER, GLOBAL_CUSTOMER_NUMBER_KEY);
-    }
-
-    /**
-     * Sets the global custom object with the provided last used customer number.
-     * @param customerNumber last used customer number to be set for the global custom object.
-     * @param version expected version of the global custom object.
-     * @return the promise of the global custom object with the last used customer number set.
-     */
-    protected F.Promise<CustomObject> setLastUsedCustomerNumber(int customerNumber, Optional<Integer> version) {
-        return customObjectService.setCustomObject(GLOBAL_CONTAINER, GLOBAL_CUSTOMER_NUMBER_KEY, customerNumber, version);
-    }
 }
@@ -0,0 +1,15 @@
+package services;
+
+import play.libs.F;
+
+/**
+ * A sequence of unique numbers shared by all nodes of the shop, e.g. to assign order or customer numbers.
+ */
+public interface NumberSequence {
+
+    /**
+     * Gets the next free number of the sequence.
+     * @return the promise of a number that was never handed out before by any node.
+     */
+    F.Promise<Long> next();
+}
@@ -1,7 +1,6 @@
 package services;
 
-import java.util.List;
-
+import models.OrderHistory;
 import models.ShopCustomer;
 import models.ShopOrder;
 import play.libs.F;
@@ -29,9 +28,11 @@ public interface OrderService {
     F.Promise<Optional<ShopOrder>> fetchByOrderNumber(String orderNumber);
 
     /**
-     * Fetches the orders belonging to the customer with the provided ID.
+     * Fetches a page of the orders belonging to the provided customer.
      * @param customer whom the desired orders belong to.
-     * @return the promise of the list of orders belonging to this customer, or empty if the customer does not exist.
+     * @param page the number of the page, starting with 0.
+     * @param pageSize the maximum amount of orders in a page.
+     * @return the promise of the page of orders belonging to this customer, empty if the customer has no orders.
      */
-    F.Promise<List<ShopOrder>> fetchByCustomer(ShopCustomer customer);
+    F.Promise<OrderHistory> fetchByCustomer(ShopCustomer customer, int page, int pageSize);
 }
@@ -2,8 +2,10 @@ package services;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import io.sphere.client.model.QueryResult;
+import models.OrderHistory;
 import models.ShopCustomer;
 import models.ShopOrder;
 import play.libs.F;
@@ -13,7 +15,6 @@ import com.google.common.base.Optional;
 
 import io.sphere.client.shop.model.*;
 import sphere.util.Async;
-import utils.AsyncUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -63,21 +64,26 @@ public class OrderServiceImpl implements OrderService {
     }
 
     @Override
-    public F.Promise<List<ShopOrder>> fetchByCustomer(final ShopCustomer customer) {
-        // TODO Order pagination
-        return Async.asPlayPromise(sphere.client().orders().forCustomer(customer.getId()).pageSize(500).fetchAsync())
-                .map(new F.Function<QueryResult<Order>, List<ShopOrder>>() {
+    public F.Promise<OrderHistory> fetchByCustomer(final ShopCustomer customer, final int page, final int pageSize) {
+        return Async.asPlayPromise(sphere.client().orders().forCustomer(customer.getId()).page(page).pageSize(pageSize).fetchAsync())
+                .flatMap(new F.Function<QueryResult<Order>, F.Promise<OrderHistory>>() {
                     @Override
-                    public List<ShopOrder> apply(QueryResult<Order> orderQueryResult) throws Throwable {
-                        List<ShopOrder> customOrders = new ArrayList<ShopOrder>();
-                        for (Order order: orderQueryResult.getResults()) {
-                            // TODO Use async calls
-                            Optional<ShopOrder> fetchedOrder = createShopOrder(order).get(AsyncUtils.defaultTimeout());
-                            if (fetchedOrder.isPresent()) {
-                                customOrders.add(fetchedOrder.get());
-                            }
+                    public F.Promise<OrderHistory> apply(final QueryResult<Order> orderQueryResult) throws Throwable {
+                        final List<Order> orders = orderQueryResult.getResults();
+                        final List<String> orderIds = new ArrayList<String>();
+                        for (Order order : orders) {
+                            orderIds.add(order.getId());
                         }
-                        return customOrders;
+                        return checkoutService.getPaymentMethods(orderIds).map(new F.Function<Map<String, String>, OrderHistory>() {
+                            @Override
+                            public OrderHistory apply(final Map<String, String> paymentMethods) throws Throwable {
+                                final List<ShopOrder> shopOrders = new ArrayList<ShopOrder>();
+                                for (Order order : orders) {
+                                    shopOrders.add(ShopOrder.of(order, Optional.fromNullable(paymentMethods.get(order.getId()))));
+                                }
+                                return OrderHistory.of(shopOrders, page, pageSize, orderQueryResult.getTotal());
+                            }
+                        });
                     }
                 });
     }
@@ -0,0 +1,25 @@
+package services;
+
+import io.sphere.client.model.Money;
+import play.libs.F;
+
+/**
+ * Charges customers through a payment provider without blocking the calling thread.
+ */
+public interface PaymentGateway {
+
+    /**
+     * Charges the provided amount with the payment the token was created for.
+     * Concurrent charges with the same idempotency key are executed only once, and charging again
+     * with the key of a successful charge returns its transaction instead of charging again.
+     * A key whose charge timed out and then failed is not charged again, since the charge may have been executed.
+     * @param idempotencyKey the key identifying the charge, derived from the order number.
+     * @param token the token of the payment, as created by the payment provider in the browser.
+     * @param amount the amount to charge.
+     * @param onCharged the callback invoked with the ID of the transaction once the charge succeeds,
+     * also when it succeeds after the returned promise timed out, e.g. to store the transaction.
+     * @return the promise of the ID of the transaction, failed with a {@link exceptions.PaymentException}
+     * if the charge failed, timed out, may already have been executed or could not be started.
+     */
+    F.Promise<String> charge(String idempotencyKey, String token, Money amount, F.Callback<String> onCharged);
+}
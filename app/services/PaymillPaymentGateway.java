@@ -0,0 +1,180 @@
+package services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.Ints;
+import de.paymill.Paymill;
+import de.paymill.PaymillException;
+import de.paymill.model.Payment;
+import de.paymill.model.Transaction;
+import de.paymill.service.PaymentService;
+import de.paymill.service.TransactionService;
+import exceptions.PaymentException;
+import io.sphere.client.model.Money;
+import play.Configuration;
+import play.Logger;
+import play.Play;
+import play.libs.Akka;
+import play.libs.F;
+import scala.concurrent.ExecutionContext;
+import utils.Metrics;
+
+import javax.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Charges customers through Paymill. The Paymill client is blocking, so every call runs in the execution context
+ * "contexts.payments", isolated from the one serving the pages. At most a given amount of charges run at once
+ * and callers stop waiting for a charge after a timeout, so that a slow payment provider cannot exhaust the threads.
+ * A charge keeps running after its callers stopped waiting, and its transaction is kept by idempotency key,
+ * so that charging again with the same key returns it. Paymill does not deduplicate charges itself, hence a charge
+ * that timed out and then failed may still have been executed, and is never charged again automatically.
+ */
+@Singleton
+public class PaymillPaymentGateway implements PaymentGateway {
+    protected static final String EXECUTION_CONTEXT = "contexts.payments";
+    protected static final int DEFAULT_MAX_CONCURRENT_PAYMENTS = 20;
+    protected static final long DEFAULT_PAYMENT_TIMEOUT = 30 * 1000;
+    protected static final int DEFAULT_COMPLETED_PAYMENTS_SIZE = 10000;
+    protected static final long DEFAULT_COMPLETED_PAYMENTS_EXPIRATION = 24 * 60 * 60 * 1000;
+    private final String privateKey;
+    private final long timeoutInMillis;
+    private final Semaphore bulkhead;
+    private final ExecutionContext executionContext;
+    private final Map<String, F.Promise<String>> ongoingCharges = new HashMap<String, F.Promise<String>>();
+    private final Cache<String, String> completedCharges;
+    private final Cache<String, Boolean> timedOutCharges;
+
+    public PaymillPaymentGateway() {
+        final Configuration config = Play.application().configuration();
+        this.privateKey = config.getString("paymill.key.private", "");
+        this.timeoutInMillis = config.getMilliseconds("shop.payments.timeout", DEFAULT_PAYMENT_TIMEOUT);
+        this.bulkhead = new Semaphore(config.getInt("shop.payments.maxConcurrent", DEFAULT_MAX_CONCURRENT_PAYMENTS));
+        this.executionContext = Akka.system().dispatchers().lookup(EXECUTION_CONTEXT);
+        final int completedSize = config.getInt("shop.payments.completed.size", DEFAULT_COMPLETED_PAYMENTS_SIZE);
+        final long completedExpiration = config.getMilliseconds("shop.payments.completed.expiration", DEFAULT_COMPLETED_PAYMENTS_EXPIRATION);
+        this.completedCharges = CacheBuilder.newBuilder()
+                .maximumSize(completedSize)
+                .expireAfterWrite(completedExpiration, TimeUnit.MILLISECONDS)
+                .build();
+        this.timedOutCharges = CacheBuilder.newBuilder()
+                .maximumSize(completedSize)
+                .expireAfterWrite(completedExpiration, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public F.Promise<String> charge(final String idempotencyKey, final String token, final Money amount,
+                                    final F.Callback<String> onCharged) {
+        final String completedTransaction = completedCharges.getIfPresent(idempotencyKey);
+        if (completedTransaction != null) {
+            Metrics.increment("payments.deduplicated");
+            final F.Promise<String> charge = F.Promise.pure(completedTransaction);
+            charge.onRedeem(onCharged);
+            return charge;
+        }
+        synchronized (ongoingCharges) {
+            F.Promise<String> charge = ongoingCharges.get(idempotencyKey);
+            if (charge != null) {
+                Metrics.increment("payments.deduplicated");
+            } else if (timedOutCharges.getIfPresent(idempotencyKey) != null) {
+                Metrics.increment("payments.uncertain");
+                return F.Promise.throwing(PaymentException.ofUncertain(idempotencyKey));
+            } else if (!bulkhead.tryAcquire()) {
+                Metrics.increment("payments.rejected");
+                return F.Promise.throwing(PaymentException.ofUnavailable(idempotencyKey));
+            } else {
+                charge = startCharge(idempotencyKey, token, amount);
+                ongoingCharges.put(idempotencyKey, charge);
+            }
+            charge.onRedeem(onCharged);
+            return withTimeout(charge, idempotencyKey);
+        }
+    }
+
+    /**
+     * Runs the charge in the payments execution context, releasing its permit once Paymill answers,
+     * even if the caller stopped waiting for it. If the charge fails after having timed out, Paymill may have
+     * executed it nonetheless, so the key stays marked as timed out and is not charged again.
+     */
+    private F.Promise<String> startCharge(final String idempotencyKey, final String token, final Money amount) {
+        final long start = System.currentTimeMillis();
+        final F.Promise<String> charge = F.Promise.promise(new F.Function0<String>() {
+            @Override
+            public String apply() throws Throwable {
+                return executeCharge(idempotencyKey, token, amount);
+            }
+        }, executionContext);
+        charge.onRedeem(new F.Callback<String>() {
+            @Override
+            public void invoke(final String transactionId) throws Throwable {
+                Metrics.increment("payments.charges");
+                Metrics.set("payments.duration", System.currentTimeMillis() - start);
+                completedCharges.put(idempotencyKey, transactionId);
+                timedOutCharges.invalidate(idempotencyKey);
+                finish(idempotencyKey);
+            }
+        });
+        charge.onFailure(new F.Callback<Throwable>() {
+            @Override
+            public void invoke(final Throwable throwable) throws Throwable {
+                Metrics.increment("payments.failures");
+                Logger.warn("Payment " + idempotencyKey + " failed", throwable);
+                finish(idempotencyKey);
+            }
+        });
+        return charge;
+    }
+
+    private void finish(final String idempotencyKey) {
+        synchronized (ongoingCharges) {
+            ongoingCharges.remove(idempotencyKey);
+        }
+        bulkhead.release();
+    }
+
+    private String executeCharge(final String idempotencyKey, final String token, final Money amount) {
+        try {
+            Paymill.setApiKey(privateKey);
+            final PaymentService paymentService = Paymill.getService(PaymentService.class);
+            final Payment payment = paymentService.create(token);
+            final TransactionService transactionService = Paymill.getService(TransactionService.class);
+            final Transaction transaction = new Transaction();
+            transaction.setPayment(payment);
+            transaction.setAmount(Ints.checkedCast(amount.getCentAmount()));
+            transaction.setCurrency(amount.getCurrencyCode());
+            transaction.setDescription(idempotencyKey);
+            Logger.debug("Executing payment " + payment.getId() + " of " + transaction.getAmount()
+                    + " " + transaction.getCurrency() + " for " + idempotencyKey);
+            return transactionService.create(transaction).getId();
+        } catch (PaymillException pe) {
+            throw PaymentException.ofFailure(idempotencyKey, pe);
+        }
+    }
+
+    /**
+     * Gets a promise of the charge that fails once the timeout is over, without stopping the charge itself.
+     * Each caller gets its own timeout, also when sharing an ongoing charge.
+     */
+    private F.Promise<String> withTimeout(final F.Promise<String> charge, final String idempotencyKey) {
+        final F.Promise<String> timeout = F.Promise.delayed(new F.Function0<String>() {
+            @Override
+            public String apply() throws Throwable {
+                if (!charge.wrapped().isCompleted()) {
+                    Metrics.increment("payments.timeouts");
+                    timedOutCharges.put(idempotencyKey, true);
+                }
+                throw PaymentException.ofTimeout(idempotencyKey, timeoutInMillis);
+            }
+        }, timeoutInMillis, TimeUnit.MILLISECONDS);
+        return charge.or(timeout).map(new F.Function<F.Either<String, String>, String>() {
+            @Override
+            public String apply(final F.Either<String, String> transactionOrTimeout) throws Throwable {
+                return transactionOrTimeout.left.get();
+            }
+        });
+    }
+}
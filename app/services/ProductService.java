@@ -43,6 +43,7 @@ public interface ProductService {
 
     /**
      * Searches products matching the search input text and the facets specified in the query string of the request.
+     * Results are cached for a short time for requests with the same search parameters.
      * @param locale the selected locale corresponding to the search request.
      * @param page the requested page.
      * @param parameters the parameters associated with the request.
@@ -52,6 +53,7 @@ public interface ProductService {
 
     /**
      * Searches products belonging to the provided category and matching the facets specified in the query string of the request.
+     * Results are cached for a short time for requests with the same search parameters.
      * @param locale the selected locale corresponding to the search request.
      * @param category the requested category.
      * @param page the requested page.
@@ -63,6 +65,7 @@ public interface ProductService {
     /**
      * Searches products that were published recently.
      * So far it simply returns the most expensive products in the shop.
+     * The list is shared by all users and refreshed periodically in the background.
      * @return the promise of the product list containing the newest products of the shop.
      */
     F.Promise<ProductList> fetchNewProducts();
@@ -70,16 +73,14 @@ public interface ProductService {
     /**
      * Searches products that are in offer.
      * So far it simply returns the cheapest products in the shop.
+     * The list is shared by all users and refreshed periodically in the background.
      * @return the promise of the product list containing the products in offer of the shop.
      */
     F.Promise<ProductList> fetchProductsInOffer();
 
     /**
-     * Searches products related to the given product.
-     * In particular, gets products belonging to one of the categories of the product.
-     * @param locale the selected locale corresponding to the search request.
-     * @param product the product to use to get recommended products.
-     * @return the promise of the product list containing products related to the provided product, if any.
+     * Discards all cached products, search results and catalog pages, so that they are fetched again from the backend.
+     * It is called whenever the periodic refresh of the newest products or the products in offer detects a change.
      */
-    F.Promise<Optional<ProductList>> fetchRecommendedProducts(Locale locale, ShopProduct product);
+    void refresh();
 }
@@ -5,36 +5,73 @@ import io.sphere.client.ProductSort;
 import io.sphere.client.filters.expressions.FilterExpression;
 import io.sphere.client.filters.expressions.FilterExpressions;
 import io.sphere.client.model.SearchResult;
+import io.sphere.client.model.VersionedId;
 import io.sphere.client.shop.model.Category;
 import io.sphere.client.shop.model.LineItem;
 import io.sphere.client.shop.model.Product;
 import models.*;
+import play.Configuration;
+import play.Logger;
+import play.Play;
 import play.libs.F;
 import sphere.SearchRequest;
 import sphere.Sphere;
+import utils.PageCache;
+import utils.PromiseCache;
+import utils.ScheduledSnapshot;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.*;
-
-import static utils.AsyncUtils.asPromise;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Singleton
 public class ProductServiceImpl implements ProductService {
-    protected static final int RECOMMENDED_PRODUCTS_SIZE = 20;
     protected static final int NEW_PRODUCTS_SIZE = 20;
     protected static final int OFFERS_PRODUCTS_SIZE = 20;
 
+    protected static final int DEFAULT_PRODUCT_CACHE_SIZE = 1000;
+    protected static final long DEFAULT_PRODUCT_CACHE_EXPIRATION = 5 * 60 * 1000;
+    protected static final int DEFAULT_SEARCH_CACHE_SIZE = 500;
+    protected static final long DEFAULT_SEARCH_CACHE_EXPIRATION = 60 * 1000;
+    protected static final long DEFAULT_HOME_PRODUCTS_REFRESH = 10 * 60 * 1000;
+
     private final Sphere sphere;
+    private final PromiseCache<String, Optional<Product>> productCache;
+    private final PromiseCache<String, SearchResult<Product>> searchResultCache;
+    private final ScheduledSnapshot<ProductList> newProducts;
+    private final ScheduledSnapshot<ProductList> productsInOffer;
+    private final AtomicReference<String> newProductsVersions = new AtomicReference<String>();
+    private final AtomicReference<String> productsInOfferVersions = new AtomicReference<String>();
 
     @Inject
     public ProductServiceImpl(final Sphere sphere) {
         this.sphere = sphere;
+        final Configuration config = Play.application().configuration();
+        this.productCache = PromiseCache.of("cache.products",
+                config.getInt("shop.cache.products.size", DEFAULT_PRODUCT_CACHE_SIZE),
+                config.getMilliseconds("shop.cache.products.expiration", DEFAULT_PRODUCT_CACHE_EXPIRATION));
+        this.searchResultCache = PromiseCache.of("cache.searches",
+                config.getInt("shop.cache.searches.size", DEFAULT_SEARCH_CACHE_SIZE),
+                config.getMilliseconds("shop.cache.searches.expiration", DEFAULT_SEARCH_CACHE_EXPIRATION));
+        final long homeProductsRefresh = config.getMilliseconds("shop.home.products.refresh", DEFAULT_HOME_PRODUCTS_REFRESH);
+        this.newProducts = ScheduledSnapshot.of("snapshot.newProducts", homeProductsRefresh, new F.Function0<F.Promise<ProductList>>() {
+            @Override
+            public F.Promise<ProductList> apply() throws Throwable {
+                return searchFirstProducts(ProductSort.price.desc, NEW_PRODUCTS_SIZE).map(refreshOnChange(newProductsVersions));
+            }
+        });
+        this.productsInOffer = ScheduledSnapshot.of("snapshot.productsInOffer", homeProductsRefresh, new F.Function0<F.Promise<ProductList>>() {
+            @Override
+            public F.Promise<ProductList> apply() throws Throwable {
+                return searchFirstProducts(ProductSort.price.asc, OFFERS_PRODUCTS_SIZE).map(refreshOnChange(productsInOfferVersions));
+            }
+        });
     }
 
     @Override
     public F.Promise<Optional<ShopProduct>> fetchById(final String productId, final int variantId) {
-        return sphere.products().byId(productId).fetchAsync()
+        return cachedProductById(productId)
                 .map(new F.Function<Optional<Product>, Optional<ShopProduct>>() {
                     @Override
                     public Optional<ShopProduct> apply(Optional<Product> product) throws Throwable {
@@ -50,40 +87,59 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public F.Promise<Optional<ShopProduct>> fetchBySlug(final Locale locale, final String productSlug, final int variantId) {
-        return sphere.products().bySlug(locale, productSlug).fetchAsync()
-                .map(new F.Function<Optional<Product>, Optional<ShopProduct>>() {
-                    @Override
-                    public Optional<ShopProduct> apply(Optional<Product> product) throws Throwable {
-                        if (product.isPresent()) {
-                            ShopProduct fetchedProduct = ShopProduct.of(product.get(), variantId);
-                            return Optional.of(fetchedProduct);
-                        } else {
-                            return Optional.absent();
-                        }
-                    }
-                });
+        final String cacheKey = "slug:" + locale.toLanguageTag() + ":" + productSlug;
+        return productCache.get(cacheKey, new F.Function0<F.Promise<Optional<Product>>>() {
+            @Override
+            public F.Promise<Optional<Product>> apply() throws Throwable {
+                return sphere.products().bySlug(locale, productSlug).fetchAsync();
+            }
+        }).map(new F.Function<Optional<Product>, Optional<ShopProduct>>() {
+            @Override
+            public Optional<ShopProduct> apply(Optional<Product> product) throws Throwable {
+                if (product.isPresent()) {
+                    ShopProduct fetchedProduct = ShopProduct.of(product.get(), variantId);
+                    return Optional.of(fetchedProduct);
+                } else {
+                    return Optional.absent();
+                }
+            }
+        });
     }
 
     @Override
     public F.Promise<Optional<ShopProduct>> fetchBySku(final String sku) {
-        FilterExpression skuFilter = filterBySku(sku);
-        return sphere.products().filter(skuFilter).fetchAsync()
-                .map(new F.Function<SearchResult<Product>, Optional<ShopProduct>>() {
-                    @Override
-                    public Optional<ShopProduct> apply(SearchResult<Product> result) throws Throwable {
-                        if (result.getResults().isEmpty()) {
-                            return Optional.absent();
-                        } else {
-                            ShopProduct fetchedProduct = ShopProduct.of(result.getResults().get(0), sku);
-                            return Optional.of(fetchedProduct);
-                        }
-                    }
-                });
+        return productCache.get("sku:" + sku, new F.Function0<F.Promise<Optional<Product>>>() {
+            @Override
+            public F.Promise<Optional<Product>> apply() throws Throwable {
+                FilterExpression skuFilter = filterBySku(sku);
+                return sphere.products().filter(skuFilter).fetchAsync()
+                        .map(new F.Function<SearchResult<Product>, Optional<Product>>() {
+                            @Override
+                            public Optional<Product> apply(SearchResult<Product> result) throws Throwable {
+                                if (result.getResults().isEmpty()) {
+                                    return Optional.absent();
+                                } else {
+                                    return Optional.of(result.getResults().get(0));
+                                }
+                            }
+                        });
+            }
+        }).map(new F.Function<Optional<Product>, Optional<ShopProduct>>() {
+            @Override
+            public Optional<ShopProduct> apply(Optional<Product> product) throws Throwable {
+                if (product.isPresent()) {
+                    ShopProduct fetchedProduct = ShopProduct.of(product.get(), sku);
+                    return Optional.of(fetchedProduct);
+                } else {
+                    return Optional.absent();
+                }
+            }
+        });
     }
 
     @Override
     public F.Promise<Optional<ShopLineItem>> fetchByLineItem(final LineItem lineItem) {
-        return sphere.products().byId(lineItem.getProductId()).fetchAsync()
+        return cachedProductById(lineItem.getProductId())
                 .map(new F.Function<Optional<Product>, Optional<ShopLineItem>>() {
                     @Override
                     public Optional<ShopLineItem> apply(Optional<Product> product) throws Throwable {
@@ -99,49 +155,81 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
-    public F.Promise<ProductList> fetchSearchedProducts(final Locale locale, int page, final RequestParameters parameters) {
-        SearchRequest<Product> searchRequest = sphere.products().filter(locale, parameters.getFilters())
-                .facet(parameters.getFacets()).sort(parameters.getSort()).page(page).pageSize(parameters.getPageSize());
-        return searchRequest.fetchAsync()
-                .map(new F.Function<SearchResult<Product>, ProductList>() {
-                @Override
-                public ProductList apply(SearchResult<Product> result) throws Throwable {
-                    return ProductList.of(result, parameters);
-                }
-            });
+    public F.Promise<ProductList> fetchSearchedProducts(final Locale locale, final int page, final RequestParameters parameters) {
+        final String cacheKey = locale.toLanguageTag() + ":" + page + ":" + parameters.toSearchKey();
+        return searchResultCache.get(cacheKey, new F.Function0<F.Promise<SearchResult<Product>>>() {
+            @Override
+            public F.Promise<SearchResult<Product>> apply() throws Throwable {
+                SearchRequest<Product> searchRequest = sphere.products().filter(locale, parameters.getFilters())
+                        .facet(parameters.getFacets()).sort(parameters.getSort()).page(page).pageSize(parameters.getPageSize());
+                return searchRequest.fetchAsync();
+            }
+        }).map(new F.Function<SearchResult<Product>, ProductList>() {
+            @Override
+            public ProductList apply(SearchResult<Product> result) throws Throwable {
+                return ProductList.of(result, parameters);
+            }
+        });
     }
 
     @Override
-    public F.Promise<ProductList> fetchCategoryProducts(final Locale locale, final ShopCategory category, int page,
+    public F.Promise<ProductList> fetchCategoryProducts(final Locale locale, final ShopCategory category, final int page,
                                                         final RequestParameters parameters) {
-        SearchRequest<Product> searchRequest = sphere.products().filter(locale, filterByCategory(category))
-                .facet(parameters.getFacets()).sort(parameters.getSort()).page(page).pageSize(parameters.getPageSize());
-        return searchRequest.fetchAsync()
-                .map(new F.Function<SearchResult<Product>, ProductList>() {
-                    @Override
-                    public ProductList apply(SearchResult<Product> result) throws Throwable {
-                        return ProductList.of(result, parameters);
-                    }
-                });
+        final String cacheKey = locale.toLanguageTag() + ":" + category.getId() + ":" + page + ":" + parameters.toSearchKey();
+        return searchResultCache.get(cacheKey, new F.Function0<F.Promise<SearchResult<Product>>>() {
+            @Override
+            public F.Promise<SearchResult<Product>> apply() throws Throwable {
+                SearchRequest<Product> searchRequest = sphere.products().filter(locale, filterByCategory(category))
+                        .facet(parameters.getFacets()).sort(parameters.getSort()).page(page).pageSize(parameters.getPageSize());
+                return searchRequest.fetchAsync();
+            }
+        }).map(new F.Function<SearchResult<Product>, ProductList>() {
+            @Override
+            public ProductList apply(SearchResult<Product> result) throws Throwable {
+                return ProductList.of(result, parameters);
+            }
+        });
     }
 
     @Override
     public F.Promise<ProductList> fetchNewProducts() {
-        SearchRequest<Product> searchRequest = sphere.products().all().sort(ProductSort.price.desc)
-                .page(0).pageSize(NEW_PRODUCTS_SIZE);
-        return searchRequest.fetchAsync()
-                .map(new F.Function<SearchResult<Product>, ProductList>() {
-                    @Override
-                    public ProductList apply(SearchResult<Product> result) throws Throwable {
-                        return ProductList.of(result);
-                    }
-                });
+        return newProducts.get();
     }
 
     @Override
     public F.Promise<ProductList> fetchProductsInOffer() {
-        SearchRequest<Product> searchRequest = sphere.products().all().sort(ProductSort.price.asc)
-                .page(0).pageSize(OFFERS_PRODUCTS_SIZE);
+        return productsInOffer.get();
+    }
+
+    @Override
+    public void refresh() {
+        productCache.invalidateAll();
+        searchResultCache.invalidateAll();
+        PageCache.shared().invalidateAll();
+    }
+
+    /**
+     * Fetches the product with the provided ID, or takes it from the product cache if it was recently fetched.
+     * @param productId internal identifier of the product.
+     * @return the promise of the product with this ID, or absent if it does not exist.
+     */
+    protected F.Promise<Optional<Product>> cachedProductById(final String productId) {
+        return productCache.get("id:" + productId, new F.Function0<F.Promise<Optional<Product>>>() {
+            @Override
+            public F.Promise<Optional<Product>> apply() throws Throwable {
+                return sphere.products().byId(productId).fetchAsync();
+            }
+        });
+    }
+
+    /**
+     * Searches the first products of the shop in the provided order.
+     * @param sort the order of the products.
+     * @param pageSize the amount of products to fetch.
+     * @return the promise of the product list with the first products.
+     */
+    protected F.Promise<ProductList> searchFirstProducts(final ProductSort sort, final int pageSize) {
+        SearchRequest<Product> searchRequest = sphere.products().all().sort(sort).page(0).pageSize(pageSize);
         return searchRequest.fetchAsync()
                 .map(new F.Function<SearchResult<Product>, ProductList>() {
                     @Override
@@ -151,23 +239,30 @@ public class ProductServiceImpl implements ProductService {
                 });
     }
 
-    @Override
-    public F.Promise<Optional<ProductList>> fetchRecommendedProducts(final Locale locale, final ShopProduct product) {
-        List<ShopCategory> categories = product.getCategories();
-        if (categories.isEmpty()) {
-            return asPromise(Optional.<ProductList>absent());
-        } else {
-            SearchRequest<Product> searchRequest = sphere.products().filter(locale, filterByCategories(categories))
-                    .page(0).pageSize(RECOMMENDED_PRODUCTS_SIZE);
-            return searchRequest.fetchAsync()
-                    .map(new F.Function<SearchResult<Product>, Optional<ProductList>>() {
-                        @Override
-                        public Optional<ProductList> apply(SearchResult<Product> result) throws Throwable {
-                            ProductList productList = ProductList.of(result);
-                            return Optional.of(productList);
-                        }
-                    });
-        }
+    /**
+     * Discards all cached products, search results and pages when a periodically fetched product list
+     * differs from the previous fetch, i.e. some of its products were added, removed or modified,
+     * as a sign that the catalog has changed.
+     * @param lastVersions the versions of the products of the previous fetch of the product list.
+     * @return the function that checks the fetched product list and returns it unchanged.
+     */
+    protected F.Function<ProductList, ProductList> refreshOnChange(final AtomicReference<String> lastVersions) {
+        return new F.Function<ProductList, ProductList>() {
+            @Override
+            public ProductList apply(final ProductList productList) throws Throwable {
+                final StringBuilder versions = new StringBuilder();
+                for (ShopProduct product : productList.getProducts()) {
+                    final VersionedId versionedId = product.getVersionedId();
+                    versions.append(versionedId.getId()).append(':').append(versionedId.getVersion()).append(',');
+                }
+                final String previousVersions = lastVersions.getAndSet(versions.toString());
+                if (previousVersions != null && !previousVersions.equals(versions.toString())) {
+                    Logger.info("Catalog changed, discarding cached products and pages");
+                    refresh();
+                }
+                return productList;
+            }
+        };
     }
 
     protected static FilterExpression filterBySku(String sku) {
@@ -175,14 +270,6 @@ public class ProductServiceImpl implements ProductService {
         return new FilterExpressions.StringAttribute.EqualsAnyOf("variants.sku", skuList);
     }
 
-    protected static FilterExpression filterByCategories(List<ShopCategory> shopCategories) {
-        List<Category> categories = new ArrayList<Category>();
-        for (ShopCategory shopCategory : shopCategories) {
-            categories.add(shopCategory.get());
-        }
-        return new FilterExpressions.CategoriesOrSubcategories(categories);
-    }
-
     protected static FilterExpression filterByCategory(ShopCategory category) {
         List<Category> categories = Arrays.asList(category.get());
         return new FilterExpressions.CategoriesOrSubcategories(categories);
@@ -0,0 +1,19 @@
+package services;
+
+import com.google.common.base.Optional;
+import models.ProductList;
+import models.ShopProduct;
+import play.libs.F;
+
+public interface RecommendationService {
+
+    /**
+     * Gets the products related to the given product, i.e. products belonging to one of the categories
+     * of the product or to their subcategories. Which products are related is precomputed from a periodic scan
+     * of the catalog, while the products themselves are taken from the product cache.
+     * @param product the product to use to get recommended products.
+     * @return the promise of the product list containing products related to the provided product, or absent if there are none
+     * or the catalog was not scanned yet.
+     */
+    F.Promise<Optional<ProductList>> getRecommendedProducts(ShopProduct product);
+}
@@ -0,0 +1,143 @@
+package services;
+
+import com.google.common.base.Optional;
+import io.sphere.client.model.SearchResult;
+import io.sphere.client.shop.model.Category;
+import io.sphere.client.shop.model.Product;
+import models.ProductList;
+import models.ShopProduct;
+import play.Configuration;
+import play.Logger;
+import play.Play;
+import play.libs.F;
+import sphere.Sphere;
+import utils.ScheduledSnapshot;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recommends products from an index of the product IDs of each category, built from a periodic scan of the catalog.
+ * Only the IDs are kept in memory, the recommended products themselves are taken from the product service,
+ * so that they are as up to date as any other product shown.
+ */
+@Singleton
+public class RecommendationServiceImpl implements RecommendationService {
+    protected static final int RECOMMENDED_PRODUCTS_SIZE = 20;
+    protected static final int CATALOG_PAGE_SIZE = 200;
+    protected static final int MASTER_VARIANT_ID = 1;
+    protected static final int DEFAULT_CATALOG_MAX_PRODUCTS = 10000;
+    protected static final long DEFAULT_RECOMMENDATIONS_REFRESH = 30 * 60 * 1000;
+
+    private final Sphere sphere;
+    private final ProductService productService;
+    private final int catalogMaxProducts;
+    private final ScheduledSnapshot<Map<String, List<String>>> productIdsByCategory;
+
+    @Inject
+    public RecommendationServiceImpl(final Sphere sphere, final ProductService productService) {
+        this.sphere = sphere;
+        this.productService = productService;
+        final Configuration config = Play.application().configuration();
+        this.catalogMaxProducts = config.getInt("shop.recommendations.maxProducts", DEFAULT_CATALOG_MAX_PRODUCTS);
+        final long refresh = config.getMilliseconds("shop.recommendations.refresh", DEFAULT_RECOMMENDATIONS_REFRESH);
+        this.productIdsByCategory = ScheduledSnapshot.of("snapshot.recommendations", refresh,
+                new F.Function0<F.Promise<Map<String, List<String>>>>() {
+                    @Override
+                    public F.Promise<Map<String, List<String>>> apply() throws Throwable {
+                        return scanCatalog(0, new HashMap<String, List<String>>());
+                    }
+                });
+    }
+
+    @Override
+    public F.Promise<Optional<ProductList>> getRecommendedProducts(final ShopProduct product) {
+        final Optional<Map<String, List<String>>> index = productIdsByCategory.latest();
+        if (!index.isPresent()) {
+            return F.Promise.pure(Optional.<ProductList>absent());
+        }
+        final Set<String> recommendedIds = new LinkedHashSet<String>();
+        for (Category category : product.get().getCategories()) {
+            final List<String> productIdsInCategory = index.get().get(category.getId());
+            if (productIdsInCategory != null) {
+                for (String productId : productIdsInCategory) {
+                    if (recommendedIds.size() >= RECOMMENDED_PRODUCTS_SIZE) {
+                        break;
+                    } else if (!productId.equals(product.getId())) {
+                        recommendedIds.add(productId);
+                    }
+                }
+            }
+        }
+        final List<F.Promise<Optional<ShopProduct>>> recommendations = new ArrayList<F.Promise<Optional<ShopProduct>>>();
+        for (String productId : recommendedIds) {
+            recommendations.add(productService.fetchById(productId, MASTER_VARIANT_ID));
+        }
+        return F.Promise.sequence(recommendations).map(new F.Function<List<Optional<ShopProduct>>, Optional<ProductList>>() {
+            @Override
+            public Optional<ProductList> apply(final List<Optional<ShopProduct>> fetchedProducts) throws Throwable {
+                final List<Product> products = new ArrayList<Product>();
+                for (Optional<ShopProduct> fetchedProduct : fetchedProducts) {
+                    if (fetchedProduct.isPresent()) {
+                        products.add(fetchedProduct.get().get());
+                    }
+                }
+                if (products.isEmpty()) {
+                    return Optional.absent();
+                } else {
+                    return Optional.of(ProductList.of(products));
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches page by page all products of the catalog and indexes their IDs by each of their categories and ancestors.
+     * @param page the page of the catalog to fetch.
+     * @param index the product IDs indexed so far by category ID.
+     * @return the promise of the product IDs of the whole catalog indexed by category ID.
+     */
+    protected F.Promise<Map<String, List<String>>> scanCatalog(final int page, final Map<String, List<String>> index) {
+        return sphere.products().all().page(page).pageSize(CATALOG_PAGE_SIZE).fetchAsync()
+                .flatMap(new F.Function<SearchResult<Product>, F.Promise<Map<String, List<String>>>>() {
+                    @Override
+                    public F.Promise<Map<String, List<String>>> apply(SearchResult<Product> result) throws Throwable {
+                        for (Product product : result.getResults()) {
+                            addToIndex(product, index);
+                        }
+                        final int scannedProducts = (page + 1) * CATALOG_PAGE_SIZE;
+                        if (result.getResults().size() < CATALOG_PAGE_SIZE || scannedProducts >= catalogMaxProducts) {
+                            Logger.debug(String.format("Scanned catalog for recommendations, %d categories indexed", index.size()));
+                            return F.Promise.pure(index);
+                        } else {
+                            return scanCatalog(page + 1, index);
+                        }
+                    }
+                });
+    }
+
+    private static void addToIndex(final Product product, final Map<String, List<String>> index) {
+        final Set<String> categoryIds = new HashSet<String>();
+        for (Category category : product.getCategories()) {
+            categoryIds.add(category.getId());
+            for (Category ancestor : category.getPathInTree()) {
+                categoryIds.add(ancestor.getId());
+            }
+        }
+        for (String categoryId : categoryIds) {
+            List<String> productIdsInCategory = index.get(categoryId);
+            if (productIdsInCategory == null) {
+                productIdsInCategory = new ArrayList<String>();
+                index.put(categoryId, productIdsInCategory);
+            }
+            productIdsInCategory.add(product.getId());
+        }
+    }
+}
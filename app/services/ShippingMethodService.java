@@ -2,6 +2,7 @@ package services;
 
 import com.google.common.base.Optional;
 import io.sphere.client.shop.model.ShippingMethod;
+import models.ShippingCatalogue;
 import play.libs.F;
 
 import java.util.List;
@@ -10,4 +11,10 @@ public interface ShippingMethodService {
     F.Promise<List<ShippingMethod>> getShippingMethods();
 
     F.Promise<Optional<ShippingMethod>> fetchById(String shippingMethodId);
+
+    /**
+     * Gets the catalogue of all shipping methods with their zones and rates, refreshed periodically in the background.
+     * @return the promise of the last loaded shipping catalogue.
+     */
+    F.Promise<ShippingCatalogue> getCatalogue();
 }
@@ -4,35 +4,83 @@ package services;
 import com.google.common.base.Optional;
 import io.sphere.client.model.QueryResult;
 import io.sphere.client.shop.model.ShippingMethod;
+import models.ShippingCatalogue;
+import play.Configuration;
+import play.Play;
 import play.libs.F;
 import sphere.Sphere;
+import utils.Metrics;
+import utils.ScheduledSnapshot;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.List;
 
+/**
+ * Serves the shipping methods from a catalogue that is loaded on startup and refreshed periodically,
+ * since shipping methods and zones rarely change.
+ */
 @Singleton
 public class ShippingMethodServiceImpl implements ShippingMethodService {
+    protected static final long DEFAULT_SHIPPING_METHODS_REFRESH = 60 * 60 * 1000;
     private final Sphere sphere;
+    private final ScheduledSnapshot<ShippingCatalogue> catalogue;
 
     @Inject
     public ShippingMethodServiceImpl(Sphere sphere) {
         this.sphere = sphere;
+        final Configuration config = Play.application().configuration();
+        final long refresh = config.getMilliseconds("shop.shippingMethods.refresh", DEFAULT_SHIPPING_METHODS_REFRESH);
+        this.catalogue = ScheduledSnapshot.of("snapshot.shippingMethods", refresh, new F.Function0<F.Promise<ShippingCatalogue>>() {
+            @Override
+            public F.Promise<ShippingCatalogue> apply() throws Throwable {
+                return fetchCatalogue();
+            }
+        });
+        this.catalogue.get();
     }
 
     @Override
     public F.Promise<List<ShippingMethod>> getShippingMethods() {
-        return sphere.shippingMethods().query().pageSize(500).fetchAsync()
-                .map(new F.Function<QueryResult<ShippingMethod>, List<ShippingMethod>>() {
-                    @Override
-                    public List<ShippingMethod> apply(QueryResult<ShippingMethod> shippingMethodQueryResult) throws Throwable {
-                        return shippingMethodQueryResult.getResults();
-                    }
-                });
+        return getCatalogue().map(new F.Function<ShippingCatalogue, List<ShippingMethod>>() {
+            @Override
+            public List<ShippingMethod> apply(ShippingCatalogue shippingCatalogue) throws Throwable {
+                return shippingCatalogue.all();
+            }
+        });
+    }
+
+    @Override
+    public F.Promise<Optional<ShippingMethod>> fetchById(final String shippingMethodId) {
+        return getCatalogue().flatMap(new F.Function<ShippingCatalogue, F.Promise<Optional<ShippingMethod>>>() {
+            @Override
+            public F.Promise<Optional<ShippingMethod>> apply(ShippingCatalogue shippingCatalogue) throws Throwable {
+                final Optional<ShippingMethod> shippingMethod = shippingCatalogue.getById(shippingMethodId);
+                if (shippingMethod.isPresent()) {
+                    return F.Promise.pure(shippingMethod);
+                } else {
+                    // It may have been created after the last refresh
+                    Metrics.increment("snapshot.shippingMethods.misses");
+                    return sphere.shippingMethods().byId(shippingMethodId).fetchAsync();
+                }
+            }
+        });
     }
 
     @Override
-    public F.Promise<Optional<ShippingMethod>> fetchById(String shippingMethodId) {
-        return sphere.shippingMethods().byId(shippingMethodId).fetchAsync();
+    public F.Promise<ShippingCatalogue> getCatalogue() {
+        return catalogue.get();
+    }
+
+    private F.Promise<ShippingCatalogue> fetchCatalogue() {
+        return sphere.shippingMethods().query().expand("zoneRates[*].zone").pageSize(500).fetchAsync()
+                .map(new F.Function<QueryResult<ShippingMethod>, ShippingCatalogue>() {
+                    @Override
+                    public ShippingCatalogue apply(QueryResult<ShippingMethod> shippingMethodQueryResult) throws Throwable {
+                        final ShippingCatalogue shippingCatalogue = ShippingCatalogue.of(shippingMethodQueryResult.getResults());
+                        Metrics.set("snapshot.shippingMethods.size", shippingCatalogue.size());
+                        return shippingCatalogue;
+                    }
+                });
     }
 }
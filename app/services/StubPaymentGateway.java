@@ -0,0 +1,39 @@
+package services;
+
+import io.sphere.client.model.Money;
+import play.Configuration;
+import play.Play;
+import play.libs.F;
+import utils.Metrics;
+
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates successful charges after a configured latency without calling any payment provider,
+ * e.g. to load test the checkout. Enabled with shop.payments.gateway=stub.
+ */
+@Singleton
+public class StubPaymentGateway implements PaymentGateway {
+    protected static final long DEFAULT_STUB_LATENCY = 200;
+    private final long latencyInMillis;
+
+    public StubPaymentGateway() {
+        final Configuration config = Play.application().configuration();
+        this.latencyInMillis = config.getMilliseconds("shop.payments.stub.latency", DEFAULT_STUB_LATENCY);
+    }
+
+    @Override
+    public F.Promise<String> charge(final String idempotencyKey, final String token, final Money amount,
+                                    final F.Callback<String> onCharged) {
+        final F.Promise<String> charge = F.Promise.delayed(new F.Function0<String>() {
+            @Override
+            public String apply() throws Throwable {
+                Metrics.increment("payments.stub.charges");
+                return "stub-" + idempotencyKey;
+            }
+        }, latencyInMillis, TimeUnit.MILLISECONDS);
+        charge.onRedeem(onCharged);
+        return charge;
+    }
+}
@@ -1,5 +1,6 @@
 package utils;
 
+import play.Logger;
 import play.libs.F;
 import play.mvc.Result;
 import play.mvc.Results;
@@ -32,6 +33,72 @@ public final class AsyncUtils {
         return F.Promise.<Result>pure(simpleResult);
     }
 
+    /**
+     * Recovers from a failed promise with another promise, i.e. without blocking while building the fallback value.
+     * @param promise the promise that might fail.
+     * @param recovery the function providing the promise of the fallback value, it may rethrow the throwable.
+     * @return the promise of the value, or of the recovered value if the original promise failed.
+     */
+    public static <T> F.Promise<T> recoverWith(final F.Promise<T> promise, final F.Function<Throwable, F.Promise<T>> recovery) {
+        return promise.map(new F.Function<T, F.Promise<T>>() {
+            @Override
+            public F.Promise<T> apply(final T value) throws Throwable {
+                return F.Promise.pure(value);
+            }
+        }).recover(recovery).flatMap(new F.Function<F.Promise<T>, F.Promise<T>>() {
+            @Override
+            public F.Promise<T> apply(final F.Promise<T> recovered) throws Throwable {
+                return recovered;
+            }
+        });
+    }
+
+    /**
+     * Records the time elapsed since the provided start until the promise is redeemed, as a gauge in {@link Metrics}
+     * and in the debug log, e.g. to find out which stage of building a page is on its critical path.
+     * @param name the name of the gauge.
+     * @param start the time in milliseconds when the surrounding operation started.
+     * @param promise the promise to be timed.
+     * @return the same promise.
+     */
+    public static <T> F.Promise<T> timed(final String name, final long start, final F.Promise<T> promise) {
+        promise.onRedeem(new F.Callback<T>() {
+            @Override
+            public void invoke(final T value) throws Throwable {
+                final long elapsed = System.currentTimeMillis() - start;
+                Metrics.set(name, elapsed);
+                if (Logger.isDebugEnabled()) {
+                    Logger.debug(name + " redeemed after " + elapsed + " ms");
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Records the time from now until the promise is redeemed or fails in the latency histogram
+     * with the provided name, see {@link Metrics#recordLatency(String, long)}.
+     * @param name the name of the histogram.
+     * @param promise the promise to be measured.
+     * @return the same promise.
+     */
+    public static <T> F.Promise<T> measured(final String name, final F.Promise<T> promise) {
+        final long start = System.currentTimeMillis();
+        promise.onRedeem(new F.Callback<T>() {
+            @Override
+            public void invoke(final T value) throws Throwable {
+                Metrics.recordLatency(name, System.currentTimeMillis() - start);
+            }
+        });
+        promise.onFailure(new F.Callback<Throwable>() {
+            @Override
+            public void invoke(final Throwable throwable) throws Throwable {
+                Metrics.recordLatency(name, System.currentTimeMillis() - start);
+            }
+        });
+        return promise;
+    }
+
     public static <A, B, C, D> F.Promise<D> zip(final F.Promise<A> aPromise, final F.Promise<B> bPromise, final F.Promise<C> cPromise, final F.Function3<A, B, C, D> f) {
         return aPromise.zip(bPromise).zip(cPromise).map(new F.Function<F.Tuple<F.Tuple<A, B>, C>, D>() {
             @Override
@@ -0,0 +1,70 @@
+package utils;
+
+import com.google.common.math.LongMath;
+import io.sphere.client.model.Money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money arithmetic on amounts in cents held as primitive longs, so that prices can be computed exactly
+ * and without creating intermediate objects. Tax rates are scaled to parts per million, which keeps
+ * every usual tax rate exact, e.g. 0.19 becomes 190000. Amounts are only converted back to {@link Money}
+ * once the computation is finished.
+ */
+public final class CentAmounts {
+    private static final int CENT_DIGITS = 2;
+    private static final long TAX_RATE_SCALE = 1000000L;
+
+    private CentAmounts() {
+    }
+
+    public static long of(final Money money) {
+        return money.getCentAmount();
+    }
+
+    public static Money toMoney(final long centAmount, final String currencyCode) {
+        return new Money(BigDecimal.valueOf(centAmount, CENT_DIGITS), currencyCode);
+    }
+
+    /**
+     * Scales the tax rate to parts per million.
+     * @param taxRate the tax rate, e.g. 0.19 for a tax rate of 19%.
+     * @return the tax rate in parts per million, e.g. 190000 for a tax rate of 19%.
+     */
+    public static long taxRate(final double taxRate) {
+        return Math.round(taxRate * TAX_RATE_SCALE);
+    }
+
+    /**
+     * Gets the gross amount for the given net amount and tax rate.
+     * @param netCentAmount the net amount in cents.
+     * @param taxRate the tax rate in parts per million.
+     * @param rounding the rounding applied to fractions of a cent.
+     * @return the gross amount in cents.
+     * @throws ArithmeticException if the amount is too large to be computed exactly.
+     */
+    public static long gross(final long netCentAmount, final long taxRate, final RoundingMode rounding) {
+        return LongMath.divide(LongMath.checkedMultiply(netCentAmount, TAX_RATE_SCALE + taxRate), TAX_RATE_SCALE, rounding);
+    }
+
+    /**
+     * Gets the net amount for the given gross amount and tax rate.
+     * @param grossCentAmount the gross amount in cents.
+     * @param taxRate the tax rate in parts per million.
+     * @param rounding the rounding applied to fractions of a cent.
+     * @return the net amount in cents.
+     * @throws ArithmeticException if the amount is too large to be computed exactly.
+     */
+    public static long net(final long grossCentAmount, final long taxRate, final RoundingMode rounding) {
+        return LongMath.divide(LongMath.checkedMultiply(grossCentAmount, TAX_RATE_SCALE), TAX_RATE_SCALE + taxRate, rounding);
+    }
+
+    /**
+     * Adds both amounts.
+     * @throws ArithmeticException if the sum overflows.
+     */
+    public static long plus(final long centAmount, final long otherCentAmount) {
+        return LongMath.checkedAdd(centAmount, otherCentAmount);
+    }
+}
@@ -0,0 +1,88 @@
+package utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import play.Configuration;
+import play.Play;
+import play.api.templates.Html;
+import play.libs.F;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded in-memory cache of rendered template fragments, which are identical for every user
+ * sharing the same key. Hits and misses are recorded in {@link Metrics}.
+ */
+public final class FragmentCache {
+    protected static final int DEFAULT_FRAGMENT_CACHE_SIZE = 2000;
+    protected static final long DEFAULT_FRAGMENT_CACHE_EXPIRATION = 10 * 60 * 1000;
+    private static final String METRICS_PREFIX = "cache.fragments";
+    private static volatile FragmentCache instance;
+    private final Cache<String, Html> cache;
+
+    private FragmentCache(final long maximumSize, final long expirationInMillis) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expirationInMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Gets the fragment cache of the application, configured with the limits in the application configuration.
+     * @return the shared fragment cache.
+     */
+    public static FragmentCache shared() {
+        if (instance == null) {
+            synchronized (FragmentCache.class) {
+                if (instance == null) {
+                    final Configuration config = Play.application().configuration();
+                    instance = new FragmentCache(
+                            config.getInt("shop.cache.fragments.size", DEFAULT_FRAGMENT_CACHE_SIZE),
+                            config.getMilliseconds("shop.cache.fragments.expiration", DEFAULT_FRAGMENT_CACHE_EXPIRATION));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the fragment associated with the key, rendering it if it is not cached yet.
+     * @param key the key identifying every input the fragment depends on.
+     * @param renderer the function that renders the fragment when it is not cached.
+     * @return the rendered fragment.
+     */
+    public Html get(final String key, final F.Function0<Html> renderer) {
+        final AtomicBoolean rendered = new AtomicBoolean(false);
+        final Html fragment;
+        try {
+            fragment = cache.get(key, new Callable<Html>() {
+                @Override
+                public Html call() throws Exception {
+                    rendered.set(true);
+                    try {
+                        return renderer.apply();
+                    } catch (Exception e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
+                    }
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException("Could not render fragment " + key, e.getCause());
+        }
+        Metrics.increment(METRICS_PREFIX + (rendered.get() ? ".misses" : ".hits"));
+        return fragment;
+    }
+
+    /**
+     * Discards all rendered fragments.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -1,11 +1,22 @@
 package utils;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import play.libs.Json;
 
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
 
+/**
+ * Converts JSON between the old Jackson representation used by the Sphere SDK and the new one used by Play.
+ * Both trees are converted node by node, without serializing them as text in between.
+ */
 public final class JsonUtils {
     private static final org.codehaus.jackson.map.ObjectMapper MAPPER = new org.codehaus.jackson.map.ObjectMapper();
+    private static final JsonNodeFactory NEW_FACTORY = JsonNodeFactory.instance;
+    private static final org.codehaus.jackson.node.JsonNodeFactory OLD_FACTORY = org.codehaus.jackson.node.JsonNodeFactory.instance;
 
     private JsonUtils() {
     }
@@ -17,8 +28,46 @@ public final class JsonUtils {
      * @return the converted JSON in the new Jackson format.
      */
     public static com.fasterxml.jackson.databind.JsonNode convertToNewFormat(final org.codehaus.jackson.JsonNode jsonOldFormat) {
-        final String jsonAsString = jsonOldFormat.toString();
-        return Json.parse(jsonAsString);
+        if (jsonOldFormat == null || jsonOldFormat.isMissingNode() || jsonOldFormat.isNull()) {
+            return NEW_FACTORY.nullNode();
+        } else if (jsonOldFormat.isObject()) {
+            final ObjectNode object = NEW_FACTORY.objectNode();
+            final Iterator<Map.Entry<String, org.codehaus.jackson.JsonNode>> fields = jsonOldFormat.getFields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, org.codehaus.jackson.JsonNode> field = fields.next();
+                object.put(field.getKey(), convertToNewFormat(field.getValue()));
+            }
+            return object;
+        } else if (jsonOldFormat.isArray()) {
+            final ArrayNode array = NEW_FACTORY.arrayNode();
+            for (org.codehaus.jackson.JsonNode element : jsonOldFormat) {
+                array.add(convertToNewFormat(element));
+            }
+            return array;
+        } else if (jsonOldFormat.isTextual()) {
+            return NEW_FACTORY.textNode(jsonOldFormat.getTextValue());
+        } else if (jsonOldFormat.isBoolean()) {
+            return NEW_FACTORY.booleanNode(jsonOldFormat.getBooleanValue());
+        } else if (jsonOldFormat.isInt()) {
+            return NEW_FACTORY.numberNode(jsonOldFormat.getIntValue());
+        } else if (jsonOldFormat.isLong()) {
+            return NEW_FACTORY.numberNode(jsonOldFormat.getLongValue());
+        } else if (jsonOldFormat.isBigInteger()) {
+            return NEW_FACTORY.numberNode(jsonOldFormat.getBigIntegerValue());
+        } else if (jsonOldFormat.isBigDecimal()) {
+            return NEW_FACTORY.numberNode(jsonOldFormat.getDecimalValue());
+        } else if (jsonOldFormat.isNumber()) {
+            return NEW_FACTORY.numberNode(jsonOldFormat.getDoubleValue());
+        } else if (jsonOldFormat.isBinary()) {
+            try {
+                return NEW_FACTORY.binaryNode(jsonOldFormat.getBinaryValue());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            // Any other node, e.g. POJOs, is converted through its textual representation
+            return Json.parse(jsonOldFormat.toString());
+        }
     }
 
     /**
@@ -28,10 +77,49 @@ public final class JsonUtils {
      * @return the converted JSON in the old Jackson format.
      */
     public static org.codehaus.jackson.JsonNode convertToOldFormat(final com.fasterxml.jackson.databind.JsonNode jsonNewFormat) {
-        try {
-            return MAPPER.readValue(jsonNewFormat.toString(), org.codehaus.jackson.JsonNode.class);
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+        if (jsonNewFormat == null || jsonNewFormat.isMissingNode() || jsonNewFormat.isNull()) {
+            return OLD_FACTORY.nullNode();
+        } else if (jsonNewFormat.isObject()) {
+            final org.codehaus.jackson.node.ObjectNode object = OLD_FACTORY.objectNode();
+            final Iterator<Map.Entry<String, com.fasterxml.jackson.databind.JsonNode>> fields = jsonNewFormat.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, com.fasterxml.jackson.databind.JsonNode> field = fields.next();
+                object.put(field.getKey(), convertToOldFormat(field.getValue()));
+            }
+            return object;
+        } else if (jsonNewFormat.isArray()) {
+            final org.codehaus.jackson.node.ArrayNode array = OLD_FACTORY.arrayNode();
+            for (com.fasterxml.jackson.databind.JsonNode element : jsonNewFormat) {
+                array.add(convertToOldFormat(element));
+            }
+            return array;
+        } else if (jsonNewFormat.isTextual()) {
+            return OLD_FACTORY.textNode(jsonNewFormat.textValue());
+        } else if (jsonNewFormat.isBoolean()) {
+            return OLD_FACTORY.booleanNode(jsonNewFormat.booleanValue());
+        } else if (jsonNewFormat.isInt()) {
+            return OLD_FACTORY.numberNode(jsonNewFormat.intValue());
+        } else if (jsonNewFormat.isLong()) {
+            return OLD_FACTORY.numberNode(jsonNewFormat.longValue());
+        } else if (jsonNewFormat.isBigInteger()) {
+            return OLD_FACTORY.numberNode(jsonNewFormat.bigIntegerValue());
+        } else if (jsonNewFormat.isBigDecimal()) {
+            return OLD_FACTORY.numberNode(jsonNewFormat.decimalValue());
+        } else if (jsonNewFormat.isNumber()) {
+            return OLD_FACTORY.numberNode(jsonNewFormat.doubleValue());
+        } else if (jsonNewFormat.isBinary()) {
+            try {
+                return OLD_FACTORY.binaryNode(jsonNewFormat.binaryValue());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            // Any other node, e.g. POJOs, is converted through its textual representation
+            try {
+                return MAPPER.readTree(jsonNewFormat.toString());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -0,0 +1,98 @@
+package utils;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application wide registry of named counters and gauges, e.g. to observe caches and backend calls.
+ */
+public final class Metrics {
+    private static final ConcurrentMap<String, AtomicLong> METRICS = new ConcurrentHashMap<>();
+    private static final long[] LATENCY_BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private Metrics() {
+    }
+
+    /**
+     * Increments by one the counter with the provided name.
+     * @param name the name of the counter.
+     * @return the updated value of the counter.
+     */
+    public static long increment(final String name) {
+        return metric(name).incrementAndGet();
+    }
+
+    /**
+     * Adds the provided amount to the counter with the provided name.
+     * @param name the name of the counter.
+     * @param delta the amount to add.
+     * @return the updated value of the counter.
+     */
+    public static long add(final String name, final long delta) {
+        return metric(name).addAndGet(delta);
+    }
+
+    /**
+     * Sets the gauge with the provided name to the provided value.
+     * @param name the name of the gauge.
+     * @param value the current value of the gauge.
+     */
+    public static void set(final String name, final long value) {
+        metric(name).set(value);
+    }
+
+    /**
+     * Records a latency in the histogram with the provided name. The histogram consists of the counters
+     * name.count and name.sum, plus one counter name.le[bound] per bucket counting the latencies up to its bound,
+     * where the bounds go from 10 to 10000 milliseconds.
+     * @param name the name of the histogram.
+     * @param latencyInMillis the latency to record, in milliseconds.
+     */
+    public static void recordLatency(final String name, final long latencyInMillis) {
+        increment(name + ".count");
+        add(name + ".sum", latencyInMillis);
+        for (long bound : LATENCY_BUCKETS) {
+            if (latencyInMillis <= bound) {
+                increment(name + ".le" + bound);
+            }
+        }
+    }
+
+    /**
+     * Gets the current value of the counter or gauge with the provided name.
+     * @param name the name of the counter or gauge.
+     * @return the current value, or zero if it was never recorded.
+     */
+    public static long get(final String name) {
+        final AtomicLong metric = METRICS.get(name);
+        return metric != null ? metric.get() : 0;
+    }
+
+    /**
+     * Gets the current value of all recorded counters and gauges.
+     * @return the values sorted by name.
+     */
+    public static SortedMap<String, Long> snapshot() {
+        final SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> metric : METRICS.entrySet()) {
+            snapshot.put(metric.getKey(), metric.getValue().get());
+        }
+        return snapshot;
+    }
+
+    private static AtomicLong metric(final String name) {
+        AtomicLong metric = METRICS.get(name);
+        if (metric == null) {
+            final AtomicLong newMetric = new AtomicLong();
+            metric = METRICS.putIfAbsent(name, newMetric);
+            if (metric == null) {
+                metric = newMetric;
+            }
+        }
+        return metric;
+    }
+}
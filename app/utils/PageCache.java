@@ -0,0 +1,122 @@
+package utils;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import play.Configuration;
+import play.Play;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded in-memory cache of complete pages, which are identical for every anonymous user
+ * sharing the same key. Hits and misses are recorded in {@link Metrics}.
+ */
+public final class PageCache {
+    protected static final int DEFAULT_PAGE_CACHE_SIZE = 1000;
+    protected static final long DEFAULT_PAGE_CACHE_EXPIRATION = 60 * 1000;
+    private static final String METRICS_PREFIX = "cache.pages";
+    private static volatile PageCache instance;
+    private final Cache<String, Page> cache;
+
+    private PageCache(final long maximumSize, final long expirationInMillis) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expirationInMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Gets the page cache of the application, configured with the limits in the application configuration.
+     * @return the shared page cache.
+     */
+    public static PageCache shared() {
+        if (instance == null) {
+            synchronized (PageCache.class) {
+                if (instance == null) {
+                    final Configuration config = Play.application().configuration();
+                    instance = new PageCache(
+                            config.getInt("shop.cache.pages.size", DEFAULT_PAGE_CACHE_SIZE),
+                            config.getMilliseconds("shop.cache.pages.expiration", DEFAULT_PAGE_CACHE_EXPIRATION));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the cached page associated with the key.
+     * @param key the key identifying every input the page depends on.
+     * @return the cached page, or absent if it is not cached.
+     */
+    public Optional<Page> get(final String key) {
+        final Optional<Page> page = Optional.fromNullable(cache.getIfPresent(key));
+        Metrics.increment(METRICS_PREFIX + (page.isPresent() ? ".hits" : ".misses"));
+        return page;
+    }
+
+    /**
+     * Caches the rendered page with the provided key.
+     * @param key the key identifying every input the page depends on.
+     * @param contentType the content type of the page.
+     * @param body the rendered page.
+     * @param savesReturnUrl whether rendering the page saves its URL as return URL in the session.
+     * @return the cached page.
+     */
+    public Page put(final String key, final String contentType, final byte[] body, final boolean savesReturnUrl) {
+        final Page page = new Page(contentType, body, System.currentTimeMillis(), savesReturnUrl);
+        cache.put(key, page);
+        return page;
+    }
+
+    /**
+     * Discards all cached pages, e.g. when the catalog or the categories have changed.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        Metrics.increment(METRICS_PREFIX + ".invalidations");
+    }
+
+    public static final class Page {
+        private final String contentType;
+        private final byte[] body;
+        private final long lastModified;
+        private final String etag;
+        private final boolean savesReturnUrl;
+
+        private Page(final String contentType, final byte[] body, final long lastModified, final boolean savesReturnUrl) {
+            this.contentType = contentType;
+            this.body = body;
+            this.lastModified = lastModified;
+            this.savesReturnUrl = savesReturnUrl;
+            this.etag = "\"" + Hashing.md5().hashBytes(body).toString() + "\"";
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public byte[] body() {
+            return body;
+        }
+
+        /**
+         * Gets the time the page was rendered, in milliseconds since epoch.
+         */
+        public long lastModified() {
+            return lastModified;
+        }
+
+        public String etag() {
+            return etag;
+        }
+
+        /**
+         * Tells whether the page must be saved as return URL in the session whenever it is served.
+         */
+        public boolean savesReturnUrl() {
+            return savesReturnUrl;
+        }
+    }
+}
@@ -2,12 +2,21 @@ package utils;
 
 import com.google.common.base.Optional;
 import io.sphere.client.model.Money;
+import io.sphere.client.shop.model.LineItem;
 import io.sphere.client.shop.model.Price;
 import io.sphere.client.shop.model.TaxRate;
 import models.ShopCustomer;
 
+import java.math.RoundingMode;
+import java.util.List;
+
 public final class PriceUtils {
 
+    /**
+     * Rounding applied to fractions of a cent when converting between gross and net prices.
+     */
+    public static final RoundingMode TAX_ROUNDING = RoundingMode.HALF_EVEN;
+
     private PriceUtils() {
     }
 
@@ -45,13 +54,33 @@ public final class PriceUtils {
      * @return the calculated net price for B2B customers, or gross price otherwise.
      */
     public static Money customerPrice(Money amount, TaxRate taxRate, Optional<ShopCustomer> customer) {
-        if (customer.isPresent() && customer.get().isB2B()) {
+        if (isB2B(customer)) {
             return netPrice(amount, taxRate);
         } else {
             return grossPrice(amount, taxRate);
         }
     }
 
+    /**
+     * Gets the sum of the total prices of the line items, in gross or net according to the type of customer.
+     * Each line item is rounded to cents before being added, as it is shown to the customer.
+     * @param lineItems the line items to be added up.
+     * @param currencyCode the currency of the line items.
+     * @param customer the customer to which the prices are applied.
+     * @return the calculated total price of all line items, or zero if there are none.
+     */
+    public static Money totalCustomerPrice(List<LineItem> lineItems, String currencyCode, Optional<ShopCustomer> customer) {
+        final boolean net = isB2B(customer);
+        long total = 0;
+        for (LineItem lineItem : lineItems) {
+            final TaxRate taxRate = lineItem.getTaxRate();
+            final long centAmount = customerCentAmount(CentAmounts.of(lineItem.getTotalPrice()),
+                    CentAmounts.taxRate(taxRate.getAmount()), taxRate.isIncludedInPrice(), net);
+            total = CentAmounts.plus(total, centAmount);
+        }
+        return CentAmounts.toMoney(total, currencyCode);
+    }
+
     /**
      * Gets the gross price for the given price and applied tax rate.
      * @param amount the amount to be converted.
@@ -81,23 +110,61 @@ public final class PriceUtils {
     }
 
     /**
-     * Gets the gross price for the given net price and tax rate amount applied.
+     * Gets the gross price for the given net price and tax rate amount applied, rounded half even to cents.
      * @param netAmount the net amount to be converted.
      * @param taxRate the tax rate to be applied, e.g. 0.19 for a tax rate of 19%.
      * @return the calculated gross price.
      */
     public static Money grossPrice(Money netAmount, double taxRate) {
-        return netAmount.plus(netAmount.multiply(taxRate));
+        return grossPrice(netAmount, taxRate, TAX_ROUNDING);
     }
 
     /**
-     * Gets the net price for the given gross price and tax rate amount applied.
+     * Gets the gross price for the given net price and tax rate amount applied.
+     * @param netAmount the net amount to be converted.
+     * @param taxRate the tax rate to be applied, e.g. 0.19 for a tax rate of 19%.
+     * @param rounding the rounding applied to fractions of a cent.
+     * @return the calculated gross price.
+     */
+    public static Money grossPrice(Money netAmount, double taxRate, RoundingMode rounding) {
+        final long centAmount = CentAmounts.gross(CentAmounts.of(netAmount), CentAmounts.taxRate(taxRate), rounding);
+        return CentAmounts.toMoney(centAmount, netAmount.getCurrencyCode());
+    }
+
+    /**
+     * Gets the net price for the given gross price and tax rate amount applied, rounded half even to cents.
      * @param grossAmount the gross amount to be converted.
      * @param taxRate the tax rate to be applied, e.g. 0.19 for a tax rate of 19%.
      * @return the calculated net price.
      */
     public static Money netPrice(Money grossAmount, double taxRate) {
-        return grossAmount.multiply(1 / (1 + taxRate));
+        return netPrice(grossAmount, taxRate, TAX_ROUNDING);
+    }
+
+    /**
+     * Gets the net price for the given gross price and tax rate amount applied.
+     * @param grossAmount the gross amount to be converted.
+     * @param taxRate the tax rate to be applied, e.g. 0.19 for a tax rate of 19%.
+     * @param rounding the rounding applied to fractions of a cent.
+     * @return the calculated net price.
+     */
+    public static Money netPrice(Money grossAmount, double taxRate, RoundingMode rounding) {
+        final long centAmount = CentAmounts.net(CentAmounts.of(grossAmount), CentAmounts.taxRate(taxRate), rounding);
+        return CentAmounts.toMoney(centAmount, grossAmount.getCurrencyCode());
+    }
+
+    private static boolean isB2B(Optional<ShopCustomer> customer) {
+        return customer.isPresent() && customer.get().isB2B();
+    }
+
+    private static long customerCentAmount(long centAmount, long taxRate, boolean isTaxIncluded, boolean net) {
+        if (net && isTaxIncluded) {
+            return CentAmounts.net(centAmount, taxRate, TAX_ROUNDING);
+        } else if (!net && !isTaxIncluded) {
+            return CentAmounts.gross(centAmount, taxRate, TAX_ROUNDING);
+        } else {
+            return centAmount;
+        }
     }
 
 }
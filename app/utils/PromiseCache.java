@@ -0,0 +1,112 @@
+package utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import play.libs.F;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded in-memory cache of promises, which expire after a given time since they were loaded.
+ * Concurrent requests for the same missing key share a single load, and failed loads are discarded
+ * so that the next request tries again. Hits, misses and evictions are recorded in {@link Metrics}.
+ * @param <K> the type of the keys.
+ * @param <V> the type of the cached values.
+ */
+public final class PromiseCache<K, V> {
+    private final String name;
+    private final Cache<K, F.Promise<V>> cache;
+
+    private PromiseCache(final String name, final long maximumSize, final long expirationInMillis) {
+        this.name = name;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expirationInMillis, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<K, F.Promise<V>>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<K, F.Promise<V>> notification) {
+                        if (notification.wasEvicted()) {
+                            Metrics.increment(name + ".evictions");
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Creates a cache with the provided limits.
+     * @param name the name of the cache, used as prefix of its metrics.
+     * @param maximumSize the maximum amount of entries kept in the cache.
+     * @param expirationInMillis the time in milliseconds after which a loaded entry expires.
+     * @return the empty cache.
+     */
+    public static <K, V> PromiseCache<K, V> of(final String name, final long maximumSize, final long expirationInMillis) {
+        return new PromiseCache<K, V>(name, maximumSize, expirationInMillis);
+    }
+
+    /**
+     * Gets the promise of the value associated with the key, loading it if it is not cached yet.
+     * @param key the key of the value.
+     * @param loader the function that starts loading the value when it is not cached.
+     * @return the promise of the value, shared with every other request for the same key.
+     */
+    public F.Promise<V> get(final K key, final F.Function0<F.Promise<V>> loader) {
+        final AtomicBoolean loaded = new AtomicBoolean(false);
+        final F.Promise<V> promise;
+        try {
+            promise = cache.get(key, new Callable<F.Promise<V>>() {
+                @Override
+                public F.Promise<V> call() throws Exception {
+                    loaded.set(true);
+                    try {
+                        return loader.apply();
+                    } catch (Throwable t) {
+                        return F.Promise.throwing(t);
+                    }
+                }
+            });
+        } catch (ExecutionException e) {
+            return F.Promise.throwing(e.getCause());
+        }
+        if (loaded.get()) {
+            Metrics.increment(name + ".misses");
+            promise.onFailure(new F.Callback<Throwable>() {
+                @Override
+                public void invoke(final Throwable throwable) throws Throwable {
+                    cache.asMap().remove(key, promise);
+                }
+            });
+        } else {
+            Metrics.increment(name + ".hits");
+        }
+        return promise;
+    }
+
+    /**
+     * Discards the entry associated with the key, if any.
+     * @param key the key of the entry to discard.
+     */
+    public void invalidate(final K key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * Discards all entries of the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Gets the approximate amount of entries currently in the cache.
+     * @return the amount of entries.
+     */
+    public long size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,136 @@
+package utils;
+
+import com.google.common.base.Predicate;
+import exceptions.ConcurrentModificationException;
+import play.Configuration;
+import play.Play;
+import play.libs.F;
+
+import java.util.concurrent.TimeUnit;
+
+import static utils.AsyncUtils.recoverWith;
+
+/**
+ * Runs an asynchronous operation again when it fails with a retryable error, e.g. a concurrent modification,
+ * up to a maximum amount of attempts. Attempts are delayed with exponential backoff and randomized so that
+ * competing requests do not retry at the same time; the delay is scheduled, no thread waits for it.
+ * Conflicts, retries and give-ups are counted in {@link Metrics} under the name of the policy.
+ */
+public final class RetryPolicy {
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_BACKOFF = 20;
+    private static final long DEFAULT_MAX_BACKOFF = 1000;
+
+    /**
+     * Retries only when the operation failed because the resource was modified in the meantime.
+     */
+    public static final Predicate<Throwable> ON_CONCURRENT_MODIFICATION = new Predicate<Throwable>() {
+        @Override
+        public boolean apply(final Throwable throwable) {
+            return throwable instanceof ConcurrentModificationException;
+        }
+    };
+
+    private final String name;
+    private final int maxAttempts;
+    private final long backoffInMillis;
+    private final long maxBackoffInMillis;
+
+    private RetryPolicy(final String name, final int maxAttempts, final long backoffInMillis, final long maxBackoffInMillis) {
+        this.name = name;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffInMillis = backoffInMillis;
+        this.maxBackoffInMillis = maxBackoffInMillis;
+    }
+
+    /**
+     * Creates a retry policy with the provided limits.
+     * @param name the name of the policy, used as prefix of its metrics.
+     * @param maxAttempts the maximum amount of attempts, including the first one.
+     * @param backoffInMillis the maximum delay in milliseconds before the first retry, doubled on every retry.
+     * @param maxBackoffInMillis the upper limit in milliseconds of the delay before any retry.
+     * @return the retry policy.
+     */
+    public static RetryPolicy of(final String name, final int maxAttempts, final long backoffInMillis, final long maxBackoffInMillis) {
+        return new RetryPolicy(name, maxAttempts, backoffInMillis, maxBackoffInMillis);
+    }
+
+    /**
+     * Creates a retry policy with the limits configured in shop.retries.
+     * @param name the name of the policy, used as prefix of its metrics.
+     * @return the retry policy.
+     */
+    public static RetryPolicy ofConfig(final String name) {
+        final Configuration config = Play.application().configuration();
+        return of(name, config.getInt("shop.retries.maxAttempts", DEFAULT_MAX_ATTEMPTS),
+                config.getMilliseconds("shop.retries.backoff", DEFAULT_BACKOFF),
+                config.getMilliseconds("shop.retries.maxBackoff", DEFAULT_MAX_BACKOFF));
+    }
+
+    /**
+     * Executes the operation, retrying it while it fails with a concurrent modification.
+     * @param operation the function starting an attempt of the operation, given the number of the attempt starting with 1.
+     * @return the promise of the result of the first successful attempt, or the failure of the last attempt.
+     */
+    public <T> F.Promise<T> execute(final F.Function<Integer, F.Promise<T>> operation) {
+        return execute(operation, ON_CONCURRENT_MODIFICATION);
+    }
+
+    /**
+     * Executes the operation, retrying it while it fails with a retryable error.
+     * @param operation the function starting an attempt of the operation, given the number of the attempt starting with 1.
+     * @param isRetryable the predicate telling whether the operation can be attempted again after the given error.
+     * @return the promise of the result of the first successful attempt, or the failure of the last attempt.
+     */
+    public <T> F.Promise<T> execute(final F.Function<Integer, F.Promise<T>> operation, final Predicate<Throwable> isRetryable) {
+        return attempt(operation, isRetryable, 1);
+    }
+
+    private <T> F.Promise<T> attempt(final F.Function<Integer, F.Promise<T>> operation,
+                                     final Predicate<Throwable> isRetryable, final int attempt) {
+        F.Promise<T> result;
+        try {
+            result = operation.apply(attempt);
+        } catch (Throwable t) {
+            result = F.Promise.throwing(t);
+        }
+        return recoverWith(result, new F.Function<Throwable, F.Promise<T>>() {
+            @Override
+            public F.Promise<T> apply(final Throwable throwable) throws Throwable {
+                if (!isRetryable.apply(throwable)) {
+                    throw throwable;
+                }
+                Metrics.increment(name + ".conflicts");
+                if (attempt >= maxAttempts) {
+                    Metrics.increment(name + ".giveUps");
+                    throw throwable;
+                }
+                Metrics.increment(name + ".retries");
+                return retryAfter(backoff(attempt), operation, isRetryable, attempt + 1);
+            }
+        });
+    }
+
+    private <T> F.Promise<T> retryAfter(final long delayInMillis, final F.Function<Integer, F.Promise<T>> operation,
+                                        final Predicate<Throwable> isRetryable, final int attempt) {
+        return F.Promise.delayed(new F.Function0<Integer>() {
+            @Override
+            public Integer apply() throws Throwable {
+                return attempt;
+            }
+        }, delayInMillis, TimeUnit.MILLISECONDS).flatMap(new F.Function<Integer, F.Promise<T>>() {
+            @Override
+            public F.Promise<T> apply(final Integer nextAttempt) throws Throwable {
+                return attempt(operation, isRetryable, nextAttempt);
+            }
+        });
+    }
+
+    /**
+     * Gets the time to wait before the next attempt, between half and all of the backoff of this attempt.
+     */
+    private long backoff(final int attempt) {
+        final long maxDelay = Math.min(backoffInMillis << Math.min(attempt - 1, 16), maxBackoffInMillis);
+        return maxDelay / 2 + (long) (Math.random() * maxDelay / 2);
+    }
+}
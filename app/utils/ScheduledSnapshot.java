@@ -0,0 +1,132 @@
+package utils;
+
+import com.google.common.base.Optional;
+import play.Logger;
+import play.libs.Akka;
+import play.libs.F;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the latest value produced by a loader, which is refreshed periodically in the background.
+ * Only the very first reader waits for the value to be loaded, afterwards readers always get the last
+ * successfully loaded value while a newer one is being loaded. Refreshes are recorded in {@link Metrics}.
+ * @param <T> the type of the value.
+ */
+public final class ScheduledSnapshot<T> {
+    private final String name;
+    private final long intervalInMillis;
+    private final F.Function0<F.Promise<T>> loader;
+    private final AtomicReference<F.Promise<T>> current = new AtomicReference<F.Promise<T>>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile Optional<T> latest = Optional.absent();
+
+    private ScheduledSnapshot(final String name, final long intervalInMillis, final F.Function0<F.Promise<T>> loader) {
+        this.name = name;
+        this.intervalInMillis = intervalInMillis;
+        this.loader = loader;
+    }
+
+    /**
+     * Creates a snapshot that is loaded on the first read and then refreshed with the provided interval.
+     * @param name the name of the snapshot, used as prefix of its metrics.
+     * @param intervalInMillis the time in milliseconds between two refreshes.
+     * @param loader the function that starts loading a new value.
+     * @return the snapshot, not loaded yet.
+     */
+    public static <T> ScheduledSnapshot<T> of(final String name, final long intervalInMillis, final F.Function0<F.Promise<T>> loader) {
+        return new ScheduledSnapshot<T>(name, intervalInMillis, loader);
+    }
+
+    /**
+     * Gets the last loaded value, starting the first load and the scheduled refreshes if not done yet.
+     * @return the promise of the last loaded value.
+     */
+    public F.Promise<T> get() {
+        F.Promise<T> snapshot = current.get();
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = current.get();
+                if (snapshot == null) {
+                    final F.Promise<T> firstSnapshot = load();
+                    current.set(firstSnapshot);
+                    firstSnapshot.onFailure(new F.Callback<Throwable>() {
+                        @Override
+                        public void invoke(final Throwable throwable) throws Throwable {
+                            // Nothing to serve yet, let the next reader try again
+                            current.compareAndSet(firstSnapshot, null);
+                        }
+                    });
+                    snapshot = firstSnapshot;
+                    if (scheduled.compareAndSet(false, true)) {
+                        schedule();
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the last loaded value without waiting, starting the first load and the scheduled refreshes if not done yet.
+     * @return the last loaded value, or absent if no value was loaded yet.
+     */
+    public Optional<T> latest() {
+        get();
+        return latest;
+    }
+
+    /**
+     * Loads a new value in the background, which replaces the current one once it is successfully loaded.
+     */
+    public void refresh() {
+        load().onRedeem(new F.Callback<T>() {
+            @Override
+            public void invoke(final T value) throws Throwable {
+                current.set(F.Promise.pure(value));
+            }
+        });
+    }
+
+    private F.Promise<T> load() {
+        final long start = System.currentTimeMillis();
+        F.Promise<T> promise;
+        try {
+            promise = loader.apply();
+        } catch (Throwable t) {
+            promise = F.Promise.throwing(t);
+        }
+        promise.onRedeem(new F.Callback<T>() {
+            @Override
+            public void invoke(final T value) throws Throwable {
+                final long now = System.currentTimeMillis();
+                latest = Optional.of(value);
+                Metrics.increment(name + ".refreshes");
+                Metrics.set(name + ".refreshDuration", now - start);
+                Metrics.set(name + ".lastSuccess", now);
+            }
+        });
+        promise.onFailure(new F.Callback<Throwable>() {
+            @Override
+            public void invoke(final Throwable throwable) throws Throwable {
+                Metrics.increment(name + ".failures");
+                Logger.warn("Could not refresh " + name + ", keeping previous value", throwable);
+            }
+        });
+        return promise;
+    }
+
+    private void schedule() {
+        final FiniteDuration interval = Duration.create(intervalInMillis, TimeUnit.MILLISECONDS);
+        Akka.system().scheduler().schedule(interval, interval, new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, Akka.system().dispatcher());
+    }
+}
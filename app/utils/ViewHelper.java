@@ -3,6 +3,9 @@ package utils;
 
 import io.sphere.client.model.Money;
 import io.sphere.client.shop.model.*;
+import models.CommonData;
+import play.api.templates.Html;
+import play.libs.F;
 import sphere.Sphere;
 
 import static play.mvc.Http.Context.current;
@@ -27,4 +30,52 @@ public class ViewHelper {
     public static boolean isSet(Object object) {
         return object != null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Renders the category menu, which only depends on the locale, the category tree
+     * and the root category of the current category.
+     */
+    public static Html cachedCategoryMenu(final CommonData data) {
+        String currentRootCategoryId = "";
+        if (data.currentCategory().isPresent()) {
+            currentRootCategoryId = data.currentCategory().get().getRootAncestor().getId();
+        }
+        final String key = "categoryMenu:" + fragmentKey(data) + ":" + currentRootCategoryId;
+        return FragmentCache.shared().get(key, new F.Function0<Html>() {
+            @Override
+            public Html apply() throws Throwable {
+                return views.html.helpers.categoryMenu.render(data);
+            }
+        });
+    }
+
+    /**
+     * Renders the language switcher, which links to the current page in every language.
+     */
+    public static Html cachedLanguageSwitcher(final CommonData data) {
+        final String key = "languageSwitcher:" + fragmentKey(data) + ":" + current().request().uri();
+        return FragmentCache.shared().get(key, new F.Function0<Html>() {
+            @Override
+            public Html apply() throws Throwable {
+                return views.html.helpers.languageSwitcher.render(data);
+            }
+        });
+    }
+
+    /**
+     * Renders the country switcher, which links to the current page in every country.
+     */
+    public static Html cachedCountrySwitcher(final CommonData data) {
+        final String key = "countrySwitcher:" + fragmentKey(data) + ":" + current().request().uri();
+        return FragmentCache.shared().get(key, new F.Function0<Html>() {
+            @Override
+            public Html apply() throws Throwable {
+                return views.html.helpers.countrySwitcher.render(data);
+            }
+        });
+    }
+
+    private static String fragmentKey(final CommonData data) {
+        return data.context().locale().toLanguageTag() + ":" + data.context().country() + ":" + data.categoryTreeVersion();
+    }
+}
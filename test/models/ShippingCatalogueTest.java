@@ -0,0 +1,96 @@
+package models;
+
+import com.google.common.base.Optional;
+import com.neovisionaries.i18n.CountryCode;
+import io.sphere.client.model.Money;
+import io.sphere.client.model.Reference;
+import io.sphere.client.shop.model.Location;
+import io.sphere.client.shop.model.ShippingMethod;
+import io.sphere.client.shop.model.ShippingRate;
+import io.sphere.client.shop.model.Zone;
+import io.sphere.client.shop.model.ZoneRate;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Currency;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ShippingCatalogueTest {
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency USD = Currency.getInstance("USD");
+
+    @Test
+    public void shouldFindMethodsForCountryWithoutState() {
+        ShippingMethod standard = shippingMethod("standard", zoneRate(location(CountryCode.DE, null), money(5, "EUR")));
+        ShippingCatalogue catalogue = ShippingCatalogue.of(Arrays.asList(standard));
+
+        ShippingMethods methods = catalogue.methodsFor(CountryCode.DE, Optional.of("Berlin"), EUR);
+
+        assertThat(methods.all()).containsExactly(standard);
+        assertThat(methods.getPrice(standard)).isEqualTo(Optional.of(money(5, "EUR")));
+    }
+
+    @Test
+    public void shouldFindMethodsOnlyForMatchingState() {
+        ShippingMethod express = shippingMethod("express", zoneRate(location(CountryCode.US, "NY"), money(10, "USD")));
+        ShippingCatalogue catalogue = ShippingCatalogue.of(Arrays.asList(express));
+
+        assertThat(catalogue.methodsFor(CountryCode.US, Optional.of("NY"), USD).all()).containsExactly(express);
+        assertThat(catalogue.methodsFor(CountryCode.US, Optional.of("CA"), USD).all()).isEmpty();
+        assertThat(catalogue.methodsFor(CountryCode.US, Optional.<String>absent(), USD).all()).isEmpty();
+    }
+
+    @Test
+    public void shouldIgnoreMethodsWithoutRateInCurrency() {
+        ShippingMethod standard = shippingMethod("standard", zoneRate(location(CountryCode.DE, null), money(5, "EUR")));
+        ShippingCatalogue catalogue = ShippingCatalogue.of(Arrays.asList(standard));
+
+        assertThat(catalogue.methodsFor(CountryCode.DE, Optional.<String>absent(), USD).all()).isEmpty();
+    }
+
+    @Test
+    public void shouldIgnoreMethodsOfOtherCountries() {
+        ShippingMethod standard = shippingMethod("standard", zoneRate(location(CountryCode.DE, null), money(5, "EUR")));
+        ShippingCatalogue catalogue = ShippingCatalogue.of(Arrays.asList(standard));
+
+        assertThat(catalogue.methodsFor(CountryCode.FR, Optional.<String>absent(), EUR).all()).isEmpty();
+        assertThat(catalogue.getById("standard")).isEqualTo(Optional.of(standard));
+    }
+
+    private ShippingMethod shippingMethod(String id, ZoneRate zoneRate) {
+        ShippingMethod method = mock(ShippingMethod.class);
+        when(method.getId()).thenReturn(id);
+        when(method.getZoneRates()).thenReturn(Arrays.asList(zoneRate));
+        return method;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ZoneRate zoneRate(Location location, Money price) {
+        Zone zone = mock(Zone.class);
+        when(zone.getLocations()).thenReturn(Arrays.asList(location));
+        Reference<Zone> zoneReference = mock(Reference.class);
+        when(zoneReference.isExpanded()).thenReturn(true);
+        when(zoneReference.get()).thenReturn(zone);
+        ShippingRate rate = mock(ShippingRate.class);
+        when(rate.getPrice()).thenReturn(price);
+        ZoneRate zoneRate = mock(ZoneRate.class);
+        when(zoneRate.getZone()).thenReturn(zoneReference);
+        when(zoneRate.getShippingRates()).thenReturn(Arrays.asList(rate));
+        return zoneRate;
+    }
+
+    private Location location(CountryCode country, String state) {
+        Location location = mock(Location.class);
+        when(location.getCountry()).thenReturn(country);
+        when(location.getState()).thenReturn(state);
+        return location;
+    }
+
+    private Money money(double amount, String currencyCode) {
+        return new Money(BigDecimal.valueOf(amount), currencyCode);
+    }
+}
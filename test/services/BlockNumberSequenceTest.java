@@ -0,0 +1,167 @@
+package services;
+
+import org.junit.Test;
+import play.libs.F;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class BlockNumberSequenceTest {
+    private static final String CONTAINER = "sequences";
+    private static final String KEY = "testNumbers";
+    private static final long TIMEOUT = 5000;
+
+    @Test
+    public void shouldHandOutOrderedNumbersWithBlockSizeOne() {
+        InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        BlockNumberSequence sequence = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 1000, 1);
+
+        assertThat(nextNumbers(sequence, 3)).containsExactly(1001L, 1002L, 1003L);
+        assertThat(customObjects.writes.get()).isEqualTo(3);
+        assertThat(customObjects.value(CONTAINER, KEY).asLong()).isEqualTo(1003L);
+    }
+
+    @Test
+    public void shouldLeaseBlocksFromStoredNumber() {
+        InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        customObjects.put(CONTAINER, KEY, 2000L);
+        BlockNumberSequence sequence = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 1000, 1);
+
+        assertThat(nextNumbers(sequence, 2)).containsExactly(2001L, 2002L);
+    }
+
+    @Test
+    public void shouldCreateCustomObjectOnlyOnce() {
+        final InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        customObjects.beforeWrites.add(new Runnable() {
+            @Override
+            public void run() {
+                // Another node creates the custom object in the meantime
+                customObjects.put(CONTAINER, KEY, 1005L);
+            }
+        });
+        BlockNumberSequence sequence = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 1000, 1);
+
+        assertThat(nextNumbers(sequence, 1)).containsExactly(1006L);
+        assertThat(customObjects.conflicts.get()).isEqualTo(1);
+        assertThat(customObjects.value(CONTAINER, KEY).asLong()).isEqualTo(1006L);
+    }
+
+    @Test
+    public void shouldRetryLeaseWhenAnotherNodeLeasedInTheMeantime() {
+        final InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        customObjects.put(CONTAINER, KEY, 1000L);
+        customObjects.beforeWrites.add(new Runnable() {
+            @Override
+            public void run() {
+                customObjects.put(CONTAINER, KEY, 1010L);
+            }
+        });
+        BlockNumberSequence sequence = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 1000, 10);
+
+        assertThat(nextNumbers(sequence, 1)).containsExactly(1011L);
+        assertThat(customObjects.conflicts.get()).isEqualTo(1);
+        assertThat(customObjects.value(CONTAINER, KEY).asLong()).isEqualTo(1020L);
+    }
+
+    @Test
+    public void shouldPrefetchNextBlockAtMidpoint() {
+        InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        BlockNumberSequence sequence = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 0, 4);
+
+        assertThat(nextNumbers(sequence, 1)).containsExactly(1L);
+        assertThat(customObjects.writes.get()).isEqualTo(1);
+        assertThat(nextNumbers(sequence, 1)).containsExactly(2L);
+        waitForWrites(customObjects, 2);
+        assertThat(customObjects.value(CONTAINER, KEY).asLong()).isEqualTo(8L);
+        assertThat(nextNumbers(sequence, 3)).containsExactly(3L, 4L, 5L);
+        assertThat(customObjects.writes.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldShareOngoingLeaseBetweenConcurrentCallers() {
+        InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        customObjects.writeDelayInMillis = 100;
+        BlockNumberSequence sequence = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 0, 10);
+        List<F.Promise<Long>> numbers = new ArrayList<F.Promise<Long>>();
+
+        for (int i = 0; i < 4; i++) {
+            numbers.add(sequence.next());
+        }
+
+        Set<Long> handedOut = new HashSet<Long>();
+        for (F.Promise<Long> number : numbers) {
+            handedOut.add(number.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        assertThat(handedOut).containsOnly(1L, 2L, 3L, 4L);
+        assertThat(customObjects.writes.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLeaseAgainAfterFailedLease() {
+        InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        customObjects.failures.add(new IllegalStateException("backend unavailable"));
+        BlockNumberSequence sequence = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 1000, 1);
+
+        try {
+            sequence.next().get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The first lease should have failed");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("backend unavailable");
+        }
+        assertThat(nextNumbers(sequence, 2)).containsExactly(1001L, 1002L);
+    }
+
+    @Test
+    public void shouldHandOutUniqueNumbersAcrossConcurrentNodes() throws Exception {
+        InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+        final BlockNumberSequence firstNode = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 0, 5);
+        final BlockNumberSequence secondNode = BlockNumberSequence.of(customObjects, CONTAINER, KEY, 0, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+            for (int i = 0; i < 8; i++) {
+                final BlockNumberSequence sequence = i % 2 == 0 ? firstNode : secondNode;
+                results.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() throws Exception {
+                        return nextNumbers(sequence, 50);
+                    }
+                }));
+            }
+            Set<Long> handedOut = new HashSet<Long>();
+            for (Future<List<Long>> result : results) {
+                handedOut.addAll(result.get(TIMEOUT * 4, TimeUnit.MILLISECONDS));
+            }
+            assertThat(handedOut).hasSize(400);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Long> nextNumbers(final BlockNumberSequence sequence, final int amount) {
+        List<Long> numbers = new ArrayList<Long>();
+        for (int i = 0; i < amount; i++) {
+            numbers.add(sequence.next().get(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        return numbers;
+    }
+
+    private static void waitForWrites(final InMemoryCustomObjectService customObjects, final int writes) {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (customObjects.writes.get() < writes && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertThat(customObjects.writes.get()).isEqualTo(writes);
+    }
+}
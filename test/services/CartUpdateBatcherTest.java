@@ -0,0 +1,149 @@
+package services;
+
+import com.google.common.base.Predicate;
+import io.sphere.client.shop.model.CartUpdate;
+import models.ShopCart;
+import org.junit.Test;
+import play.libs.F;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CartUpdateBatcherTest {
+    private static final long WINDOW = 20;
+    private static final long TIMEOUT = 2000;
+
+    @Test
+    public void shouldMergeChangesWithinWindowIntoSingleUpdate() {
+        RecordingUpdater updater = new RecordingUpdater();
+        CartUpdateBatcher batcher = batcher(updater);
+        ShopCart cart = activeCart("cart-1");
+        RecordingChange first = new RecordingChange();
+        RecordingChange second = new RecordingChange();
+
+        F.Promise<ShopCart> firstResult = batcher.update(cart, first);
+        F.Promise<ShopCart> secondResult = batcher.update(cart, second);
+
+        assertThat(firstResult.get(TIMEOUT, TimeUnit.MILLISECONDS)).isSameAs(updater.updatedCart);
+        assertThat(secondResult.get(TIMEOUT, TimeUnit.MILLISECONDS)).isSameAs(updater.updatedCart);
+        assertThat(updater.updates).hasSize(1);
+        assertThat(first.appliedTo).containsExactly(updater.updates.get(0));
+        assertThat(second.appliedTo).containsExactly(updater.updates.get(0));
+    }
+
+    @Test
+    public void shouldKeepBatchesOfDifferentCartsApart() {
+        RecordingUpdater updater = new RecordingUpdater();
+        CartUpdateBatcher batcher = batcher(updater);
+
+        F.Promise<ShopCart> firstResult = batcher.update(activeCart("cart-1"), new RecordingChange());
+        F.Promise<ShopCart> secondResult = batcher.update(activeCart("cart-2"), new RecordingChange());
+
+        firstResult.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        secondResult.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertThat(updater.updates).hasSize(2);
+    }
+
+    @Test
+    public void shouldSendEachChangeAloneWhenMergedUpdateIsRejected() {
+        RecordingUpdater updater = new RecordingUpdater();
+        updater.failures.add(new IllegalArgumentException("rejected"));
+        CartUpdateBatcher batcher = batcher(updater);
+        ShopCart cart = activeCart("cart-1");
+        RecordingChange first = new RecordingChange();
+        RecordingChange second = new RecordingChange();
+
+        F.Promise<ShopCart> firstResult = batcher.update(cart, first);
+        F.Promise<ShopCart> secondResult = batcher.update(cart, second);
+
+        assertThat(firstResult.get(TIMEOUT, TimeUnit.MILLISECONDS)).isSameAs(updater.updatedCart);
+        assertThat(secondResult.get(TIMEOUT, TimeUnit.MILLISECONDS)).isSameAs(updater.updatedCart);
+        assertThat(updater.updates).hasSize(3);
+        assertThat(first.appliedTo).hasSize(2);
+        assertThat(second.appliedTo).hasSize(2);
+    }
+
+    @Test
+    public void shouldReportOtherFailuresWithoutSendingChangesAgain() {
+        RecordingUpdater updater = new RecordingUpdater();
+        updater.failures.add(new IllegalStateException("timeout"));
+        CartUpdateBatcher batcher = batcher(updater);
+        ShopCart cart = activeCart("cart-1");
+
+        F.Promise<ShopCart> firstResult = batcher.update(cart, new RecordingChange());
+        F.Promise<ShopCart> secondResult = batcher.update(cart, new RecordingChange());
+
+        assertFailsWith(firstResult, IllegalStateException.class);
+        assertFailsWith(secondResult, IllegalStateException.class);
+        assertThat(updater.updates).hasSize(1);
+    }
+
+    @Test
+    public void shouldSendChangesOfInactiveCartsAlone() {
+        RecordingUpdater updater = new RecordingUpdater();
+        CartUpdateBatcher batcher = batcher(updater);
+        ShopCart cart = mock(ShopCart.class);
+        when(cart.isActive()).thenReturn(false);
+
+        batcher.update(cart, new RecordingChange()).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        batcher.update(cart, new RecordingChange()).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(updater.updates).hasSize(2);
+    }
+
+    private CartUpdateBatcher batcher(RecordingUpdater updater) {
+        return CartUpdateBatcher.of(WINDOW, updater, new Predicate<Throwable>() {
+            @Override
+            public boolean apply(Throwable throwable) {
+                return throwable instanceof IllegalArgumentException;
+            }
+        });
+    }
+
+    private ShopCart activeCart(String id) {
+        ShopCart cart = mock(ShopCart.class);
+        when(cart.isActive()).thenReturn(true);
+        when(cart.getId()).thenReturn(id);
+        return cart;
+    }
+
+    private void assertFailsWith(F.Promise<ShopCart> result, Class<? extends Throwable> failureClass) {
+        try {
+            result.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("Expected failure " + failureClass.getSimpleName());
+        } catch (Exception e) {
+            assertThat(e).isInstanceOf(failureClass);
+        }
+    }
+
+    private static class RecordingUpdater implements F.Function2<ShopCart, CartUpdate, F.Promise<ShopCart>> {
+        private final ShopCart updatedCart = mock(ShopCart.class);
+        private final List<CartUpdate> updates = Collections.synchronizedList(new ArrayList<CartUpdate>());
+        private final List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<RuntimeException>());
+
+        @Override
+        public F.Promise<ShopCart> apply(ShopCart cart, CartUpdate cartUpdate) {
+            updates.add(cartUpdate);
+            if (!failures.isEmpty()) {
+                return F.Promise.throwing(failures.remove(0));
+            }
+            return F.Promise.pure(updatedCart);
+        }
+    }
+
+    private static class RecordingChange extends CartUpdateBatcher.CartChange {
+        private final List<CartUpdate> appliedTo = Collections.synchronizedList(new ArrayList<CartUpdate>());
+
+        @Override
+        public void applyTo(CartUpdate cartUpdate) {
+            appliedTo.add(cartUpdate);
+        }
+    }
+}
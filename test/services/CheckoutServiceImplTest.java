@@ -0,0 +1,96 @@
+package services;
+
+import models.CheckoutInformation;
+import org.junit.Test;
+import play.GlobalSettings;
+import play.libs.F;
+import sphere.Sphere;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.running;
+import static services.CheckoutServiceImpl.CHECKOUT_CONTAINER;
+import static utils.JsonUtils.convertToOldFormat;
+
+public class CheckoutServiceImplTest {
+    private static final String CART_ID = "cart-1";
+    private static final long TIMEOUT = 2000;
+
+    @Test
+    public void shouldAssignOrderNumberOnlyOnce() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+                CheckoutServiceImpl checkoutService = checkoutService(customObjects, 1000);
+
+                assertThat(get(checkoutService.startOrderNumber(CART_ID))).isEqualTo("1001");
+                assertThat(get(checkoutService.startOrderNumber(CART_ID))).isEqualTo("1001");
+                assertThat(storedOrderNumber(customObjects)).isEqualTo("1001");
+            }
+        });
+    }
+
+    @Test
+    public void shouldKeepOrderNumberStoredByConcurrentCheckout() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                final InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+                customObjects.beforeWrites.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        customObjects.put(CHECKOUT_CONTAINER, CART_ID,
+                                convertToOldFormat(CheckoutInformation.empty().withOrderNumber("999").toJson()));
+                    }
+                });
+                CheckoutServiceImpl checkoutService = checkoutService(customObjects, 1000);
+
+                assertThat(get(checkoutService.startOrderNumber(CART_ID))).isEqualTo("999");
+                assertThat(storedOrderNumber(customObjects)).isEqualTo("999");
+                assertThat(customObjects.conflicts.get()).isEqualTo(1);
+            }
+        });
+    }
+
+    @Test
+    public void shouldKeepOtherCheckoutInformationWhenAssigningOrderNumber() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                final InMemoryCustomObjectService customObjects = new InMemoryCustomObjectService();
+                customObjects.put(CHECKOUT_CONTAINER, CART_ID,
+                        convertToOldFormat(CheckoutInformation.empty().withPaymentMethod("creditcard", "tok_1").toJson()));
+                CheckoutServiceImpl checkoutService = checkoutService(customObjects, 1000);
+
+                assertThat(get(checkoutService.startOrderNumber(CART_ID))).isEqualTo("1001");
+                CheckoutInformation info = get(checkoutService.getCheckoutInformation(CART_ID));
+                assertThat(info.orderNumber().get()).isEqualTo("1001");
+                assertThat(info.paymentMethod().get()).isEqualTo("creditcard");
+            }
+        });
+    }
+
+    private static CheckoutServiceImpl checkoutService(final CustomObjectService customObjectService, final long lastOrderNumber) {
+        final AtomicLong orderNumbers = new AtomicLong(lastOrderNumber);
+        return new CheckoutServiceImpl(mock(Sphere.class), customObjectService, mock(ShippingMethodService.class),
+                new NumberSequence() {
+                    @Override
+                    public F.Promise<Long> next() {
+                        return F.Promise.pure(orderNumbers.incrementAndGet());
+                    }
+                });
+    }
+
+    private static String storedOrderNumber(final CustomObjectService customObjectService) {
+        return CheckoutInformation.of(get(customObjectService.getCustomObject(CHECKOUT_CONTAINER, CART_ID))).orderNumber().get();
+    }
+
+    private static <T> T get(final F.Promise<T> promise) {
+        return promise.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+}
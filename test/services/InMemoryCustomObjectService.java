@@ -0,0 +1,122 @@
+package services;
+
+import com.google.common.base.Optional;
+import exceptions.ConcurrentModificationException;
+import io.sphere.client.model.CustomObject;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import play.libs.F;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Keeps custom objects in memory with the optimistic versioning of the backend: writing with the wrong version fails
+ * with a concurrent modification, and version 0 only creates the custom object if it does not exist yet.
+ * Writes of other nodes and backend failures can be injected before the next writes, and writes can be delayed
+ * to keep them in flight.
+ */
+class InMemoryCustomObjectService implements CustomObjectService {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private final Map<String, CustomObject> customObjects = new HashMap<String, CustomObject>();
+    final Queue<Runnable> beforeWrites = new ConcurrentLinkedQueue<Runnable>();
+    final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+    final AtomicInteger writes = new AtomicInteger();
+    final AtomicInteger conflicts = new AtomicInteger();
+    volatile long writeDelayInMillis = 0;
+
+    @Override
+    public F.Promise<Optional<CustomObject>> getCustomObject(final String container, final String key) {
+        synchronized (customObjects) {
+            return F.Promise.pure(Optional.fromNullable(customObjects.get(container + "/" + key)));
+        }
+    }
+
+    @Override
+    public F.Promise<Map<String, CustomObject>> getCustomObjects(final String container, final Collection<String> keys) {
+        final Map<String, CustomObject> found = new HashMap<String, CustomObject>();
+        synchronized (customObjects) {
+            for (String key : keys) {
+                final CustomObject customObject = customObjects.get(container + "/" + key);
+                if (customObject != null) {
+                    found.put(key, customObject);
+                }
+            }
+        }
+        return F.Promise.pure(found);
+    }
+
+    @Override
+    public <T> F.Promise<CustomObject> setCustomObject(final String container, final String key, final T data,
+                                                      final Optional<Integer> version) {
+        final Runnable otherWrite = beforeWrites.poll();
+        if (otherWrite != null) {
+            otherWrite.run();
+        }
+        final Throwable failure = failures.poll();
+        if (failure != null) {
+            return F.Promise.throwing(failure);
+        }
+        if (writeDelayInMillis > 0) {
+            return F.Promise.delayed(new F.Function0<CustomObject>() {
+                @Override
+                public CustomObject apply() throws Throwable {
+                    return write(container, key, data, version).get(0, TimeUnit.MILLISECONDS);
+                }
+            }, writeDelayInMillis, TimeUnit.MILLISECONDS);
+        }
+        return write(container, key, data, version);
+    }
+
+    private <T> F.Promise<CustomObject> write(final String container, final String key, final T data,
+                                              final Optional<Integer> version) {
+        synchronized (customObjects) {
+            final CustomObject current = customObjects.get(container + "/" + key);
+            final int currentVersion = current != null ? current.getVersion() : 0;
+            if (version.isPresent() && version.get() != currentVersion) {
+                conflicts.incrementAndGet();
+                return F.Promise.throwing(new ConcurrentModificationException(null));
+            }
+            writes.incrementAndGet();
+            return F.Promise.pure(store(container, key, data, currentVersion + 1));
+        }
+    }
+
+    /**
+     * Writes the custom object regardless of its version, as another node would do.
+     */
+    <T> CustomObject put(final String container, final String key, final T data) {
+        synchronized (customObjects) {
+            final CustomObject current = customObjects.get(container + "/" + key);
+            return store(container, key, data, current != null ? current.getVersion() + 1 : 1);
+        }
+    }
+
+    /**
+     * Gets the stored value of the custom object.
+     * @return the value, or null if the custom object does not exist.
+     */
+    JsonNode value(final String container, final String key) {
+        synchronized (customObjects) {
+            final CustomObject customObject = customObjects.get(container + "/" + key);
+            return customObject != null ? customObject.getValue() : null;
+        }
+    }
+
+    private <T> CustomObject store(final String container, final String key, final T data, final int version) {
+        final JsonNode value = MAPPER.valueToTree(data);
+        final CustomObject customObject = mock(CustomObject.class);
+        when(customObject.getValue()).thenReturn(value);
+        when(customObject.getVersion()).thenReturn(version);
+        customObjects.put(container + "/" + key, customObject);
+        return customObject;
+    }
+}
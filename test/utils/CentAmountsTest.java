@@ -0,0 +1,51 @@
+package utils;
+
+import io.sphere.client.model.Money;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CentAmountsTest {
+
+    @Test
+    public void shouldScaleTaxRateToPartsPerMillion() {
+        assertThat(CentAmounts.taxRate(0.19)).isEqualTo(190000);
+        assertThat(CentAmounts.taxRate(0.07)).isEqualTo(70000);
+        assertThat(CentAmounts.taxRate(0.055)).isEqualTo(55000);
+    }
+
+    @Test
+    public void shouldCalculateGrossAmountExactly() {
+        assertThat(CentAmounts.gross(1000, 190000, RoundingMode.HALF_EVEN)).isEqualTo(1190);
+        assertThat(CentAmounts.gross(1, 70000, RoundingMode.HALF_EVEN)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCalculateNetAmountWithRounding() {
+        assertThat(CentAmounts.net(1000, 190000, RoundingMode.HALF_EVEN)).isEqualTo(840);
+        assertThat(CentAmounts.net(1000, 190000, RoundingMode.CEILING)).isEqualTo(841);
+    }
+
+    @Test
+    public void shouldRoundHalfCentsAccordingToRoundingMode() {
+        // 250 * 1.05 = 262.5 cents
+        assertThat(CentAmounts.gross(250, 50000, RoundingMode.HALF_EVEN)).isEqualTo(262);
+        assertThat(CentAmounts.gross(250, 50000, RoundingMode.HALF_UP)).isEqualTo(263);
+        assertThat(CentAmounts.gross(250, 50000, RoundingMode.DOWN)).isEqualTo(262);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void shouldFailWhenAmountOverflows() {
+        CentAmounts.gross(Long.MAX_VALUE / 2, 190000, RoundingMode.HALF_EVEN);
+    }
+
+    @Test
+    public void shouldConvertFromAndToMoney() {
+        Money money = new Money(BigDecimal.valueOf(12.34), "EUR");
+        assertThat(CentAmounts.of(money)).isEqualTo(1234);
+        assertThat(CentAmounts.toMoney(1234, "EUR")).isEqualTo(money);
+    }
+}
@@ -0,0 +1,55 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import play.libs.Json;
+
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static utils.JsonUtils.convertToNewFormat;
+import static utils.JsonUtils.convertToOldFormat;
+import static utils.JsonUtils.objectNode;
+
+public class JsonUtilsTest {
+    private static final String CHECKOUT_INFO = "{\"paymentMethod\":\"creditcard\",\"paymentToken\":\"tok_4d9e2b1a\"," +
+            "\"orderNumber\":\"10042\",\"paymentTimestamp\":\"2014-05-12T10:15:30.000+02:00\"}";
+    private static final String ALL_TYPES = "{\"text\":\"caf\\u00e9\",\"int\":42,\"long\":12345678901,\"big\":123456789012345678901234567890," +
+            "\"decimal\":10.25,\"true\":true,\"false\":false,\"null\":null,\"array\":[1,\"two\",[3],{\"four\":4}],\"object\":{}}";
+
+    @Test
+    public void shouldConvertToNewFormat() throws IOException {
+        assertThat(convertToNewFormat(oldJson(CHECKOUT_INFO))).isEqualTo(Json.parse(CHECKOUT_INFO));
+        assertThat(convertToNewFormat(oldJson(ALL_TYPES))).isEqualTo(Json.parse(ALL_TYPES));
+    }
+
+    @Test
+    public void shouldConvertToOldFormat() throws IOException {
+        assertThat(convertToOldFormat(Json.parse(CHECKOUT_INFO))).isEqualTo(oldJson(CHECKOUT_INFO));
+        assertThat(convertToOldFormat(Json.parse(ALL_TYPES))).isEqualTo(oldJson(ALL_TYPES));
+    }
+
+    @Test
+    public void shouldKeepJsonWhenConvertingBackAndForth() {
+        JsonNode json = Json.parse(ALL_TYPES);
+        assertThat(convertToNewFormat(convertToOldFormat(json))).isEqualTo(json);
+    }
+
+    @Test
+    public void shouldConvertNullToNullNode() {
+        assertThat(convertToNewFormat(null).isNull()).isTrue();
+        assertThat(convertToOldFormat(null).isNull()).isTrue();
+    }
+
+    @Test
+    public void shouldGetEmptyObjectNodeFromNonObject() throws IOException {
+        ObjectNode json = objectNode(oldJson("[1,2]"));
+        assertThat(json.size()).isEqualTo(0);
+    }
+
+    private static org.codehaus.jackson.JsonNode oldJson(String json) throws IOException {
+        return new ObjectMapper().readTree(json);
+    }
+}
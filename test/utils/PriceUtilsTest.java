@@ -3,12 +3,16 @@ package utils;
 import com.google.common.base.Optional;
 import com.neovisionaries.i18n.CountryCode;
 import io.sphere.client.model.Money;
+import io.sphere.client.shop.model.LineItem;
 import io.sphere.client.shop.model.Price;
 import io.sphere.client.shop.model.TaxRate;
 import models.ShopCustomer;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -16,6 +20,7 @@ import static org.mockito.Mockito.when;
 import static utils.PriceUtils.customerPrice;
 import static utils.PriceUtils.grossPrice;
 import static utils.PriceUtils.netPrice;
+import static utils.PriceUtils.totalCustomerPrice;
 
 public class PriceUtilsTest {
 
@@ -73,6 +78,33 @@ public class PriceUtilsTest {
         assertThat(customerPrice).isEqualTo(money(8.4));
     }
 
+    @Test
+    public void shouldCalculateNetPriceWithRoundingMode() {
+        Money netAmount = netPrice(money(10), 0.19, RoundingMode.UP);
+        assertThat(netAmount).isEqualTo(money(8.41));
+    }
+
+    @Test
+    public void shouldCalculateGrossPriceOfSmallAmountsExactly() {
+        Money grossAmount = grossPrice(money(0.05), 0.1);
+        assertThat(grossAmount).isEqualTo(money(0.06));
+    }
+
+    @Test
+    public void shouldAddUpLineItemPricesRoundedToCents() {
+        List<LineItem> lineItems = Arrays.asList(lineItem(money(10), taxRateWithTaxIncluded(0.19)),
+                lineItem(money(20), taxRateWithTaxIncluded(0.19)));
+        assertThat(totalCustomerPrice(lineItems, "EUR", b2bCustomer())).isEqualTo(money(25.21));
+        assertThat(totalCustomerPrice(lineItems, "EUR", anonymousCustomer())).isEqualTo(money(30));
+    }
+
+    private LineItem lineItem(Money totalPrice, TaxRate taxRate) {
+        LineItem lineItem = mock(LineItem.class);
+        when(lineItem.getTotalPrice()).thenReturn(totalPrice);
+        when(lineItem.getTaxRate()).thenReturn(taxRate);
+        return lineItem;
+    }
+
     private Money money(double moneyAmount) {
         return new Money(BigDecimal.valueOf(moneyAmount), "EUR");
     }
@@ -0,0 +1,157 @@
+package utils;
+
+import org.junit.Test;
+import play.libs.F;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class PromiseCacheTest {
+    private static final long TIMEOUT = 2000;
+    private static final AtomicInteger CACHES = new AtomicInteger();
+
+    @Test
+    public void shouldShareOngoingLoadBetweenRequests() {
+        String name = cacheName();
+        PromiseCache<String, String> cache = PromiseCache.of(name, 10, 60000);
+        CountingLoader loader = new CountingLoader("value", 50);
+
+        F.Promise<String> first = cache.get("key", loader);
+        F.Promise<String> second = cache.get("key", loader);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.get(TIMEOUT, TimeUnit.MILLISECONDS)).isEqualTo("value");
+        assertThat(loader.loads.get()).isEqualTo(1);
+        assertThat(Metrics.get(name + ".misses")).isEqualTo(1);
+        assertThat(Metrics.get(name + ".hits")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLoadDifferentKeysSeparately() {
+        PromiseCache<String, String> cache = PromiseCache.of(cacheName(), 10, 60000);
+        CountingLoader loader = new CountingLoader("value", 0);
+
+        cache.get("key", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        cache.get("other", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(loader.loads.get()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldDiscardFailedLoads() {
+        PromiseCache<String, String> cache = PromiseCache.of(cacheName(), 10, 60000);
+        F.Function0<F.Promise<String>> failingLoader = new F.Function0<F.Promise<String>>() {
+            @Override
+            public F.Promise<String> apply() throws Throwable {
+                return F.Promise.throwing(new IllegalStateException("backend unavailable"));
+            }
+        };
+
+        try {
+            cache.get("key", failingLoader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The load should have failed");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("backend unavailable");
+        }
+        waitUntilEmpty(cache);
+        assertThat(cache.get("key", new CountingLoader("value", 0)).get(TIMEOUT, TimeUnit.MILLISECONDS)).isEqualTo("value");
+    }
+
+    @Test
+    public void shouldTurnThrowingLoaderIntoFailedPromise() {
+        PromiseCache<String, String> cache = PromiseCache.of(cacheName(), 10, 60000);
+        F.Function0<F.Promise<String>> throwingLoader = new F.Function0<F.Promise<String>>() {
+            @Override
+            public F.Promise<String> apply() throws Throwable {
+                throw new IllegalStateException("broken loader");
+            }
+        };
+
+        try {
+            cache.get("key", throwingLoader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The load should have failed");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("broken loader");
+        }
+    }
+
+    @Test
+    public void shouldLoadAgainAfterExpiration() throws InterruptedException {
+        PromiseCache<String, String> cache = PromiseCache.of(cacheName(), 10, 50);
+        CountingLoader loader = new CountingLoader("value", 0);
+
+        cache.get("key", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+        cache.get("key", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(loader.loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldLoadAgainAfterInvalidation() {
+        PromiseCache<String, String> cache = PromiseCache.of(cacheName(), 10, 60000);
+        CountingLoader loader = new CountingLoader("value", 0);
+
+        cache.get("key", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        cache.invalidate("key");
+        cache.get("key", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        cache.invalidateAll();
+        cache.get("key", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(loader.loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldEvictEntriesBeyondMaximumSize() {
+        String name = cacheName();
+        PromiseCache<String, String> cache = PromiseCache.of(name, 1, 60000);
+        CountingLoader loader = new CountingLoader("value", 0);
+
+        cache.get("key", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        cache.get("other", loader).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(Metrics.get(name + ".evictions")).isEqualTo(1);
+    }
+
+    private static String cacheName() {
+        return "test.cache" + CACHES.incrementAndGet();
+    }
+
+    private static void waitUntilEmpty(final PromiseCache<?, ?> cache) {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (cache.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    private static class CountingLoader implements F.Function0<F.Promise<String>> {
+        private final String value;
+        private final long delayInMillis;
+        private final AtomicInteger loads = new AtomicInteger();
+
+        private CountingLoader(final String value, final long delayInMillis) {
+            this.value = value;
+            this.delayInMillis = delayInMillis;
+        }
+
+        @Override
+        public F.Promise<String> apply() throws Throwable {
+            loads.incrementAndGet();
+            if (delayInMillis > 0) {
+                return F.Promise.delayed(new F.Function0<String>() {
+                    @Override
+                    public String apply() throws Throwable {
+                        return value;
+                    }
+                }, delayInMillis, TimeUnit.MILLISECONDS);
+            }
+            return F.Promise.pure(value);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package utils;
+
+import com.google.common.base.Predicate;
+import exceptions.ConcurrentModificationException;
+import org.junit.Test;
+import play.libs.F;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class RetryPolicyTest {
+    private static final long TIMEOUT = 5000;
+    private static final AtomicInteger POLICIES = new AtomicInteger();
+
+    @Test
+    public void shouldReturnResultOfFirstSuccessfulAttempt() {
+        String name = policyName();
+        FailingOperation operation = new FailingOperation(2, new ConcurrentModificationException(null));
+
+        String result = RetryPolicy.of(name, 5, 1, 10).execute(operation).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(result).isEqualTo("done after 3 attempts");
+        assertThat(operation.attempts).containsExactly(1, 2, 3);
+        assertThat(Metrics.get(name + ".conflicts")).isEqualTo(2);
+        assertThat(Metrics.get(name + ".retries")).isEqualTo(2);
+        assertThat(Metrics.get(name + ".giveUps")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() {
+        String name = policyName();
+        FailingOperation operation = new FailingOperation(10, new ConcurrentModificationException(null));
+
+        try {
+            RetryPolicy.of(name, 3, 1, 10).execute(operation).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The operation should have failed");
+        } catch (ConcurrentModificationException e) {
+            assertThat(operation.attempts).containsExactly(1, 2, 3);
+        }
+        assertThat(Metrics.get(name + ".conflicts")).isEqualTo(3);
+        assertThat(Metrics.get(name + ".retries")).isEqualTo(2);
+        assertThat(Metrics.get(name + ".giveUps")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldAttemptAtLeastOnce() {
+        String name = policyName();
+        FailingOperation operation = new FailingOperation(0, null);
+
+        String result = RetryPolicy.of(name, 0, 1, 10).execute(operation).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(result).isEqualTo("done after 1 attempts");
+    }
+
+    @Test
+    public void shouldPassThroughNonRetryableErrors() {
+        String name = policyName();
+        FailingOperation operation = new FailingOperation(10, new IllegalStateException("not retryable"));
+
+        try {
+            RetryPolicy.of(name, 5, 1, 10).execute(operation).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The operation should have failed");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("not retryable");
+        }
+        assertThat(operation.attempts).containsExactly(1);
+        assertThat(Metrics.get(name + ".conflicts")).isEqualTo(0);
+        assertThat(Metrics.get(name + ".giveUps")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRetryErrorsAcceptedByPredicate() {
+        String name = policyName();
+        FailingOperation operation = new FailingOperation(1, new IllegalStateException("retryable"));
+        Predicate<Throwable> isIllegalState = new Predicate<Throwable>() {
+            @Override
+            public boolean apply(final Throwable throwable) {
+                return throwable instanceof IllegalStateException;
+            }
+        };
+
+        String result = RetryPolicy.of(name, 5, 1, 10).execute(operation, isIllegalState).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(result).isEqualTo("done after 2 attempts");
+    }
+
+    @Test
+    public void shouldRetryOperationsThrowingBeforeReturningPromise() {
+        String name = policyName();
+        final AtomicInteger attempts = new AtomicInteger();
+        F.Function<Integer, F.Promise<String>> operation = new F.Function<Integer, F.Promise<String>>() {
+            @Override
+            public F.Promise<String> apply(final Integer attempt) throws Throwable {
+                attempts.incrementAndGet();
+                if (attempt == 1) {
+                    throw new ConcurrentModificationException(null);
+                }
+                return F.Promise.pure("done");
+            }
+        };
+
+        assertThat(RetryPolicy.of(name, 5, 1, 10).execute(operation).get(TIMEOUT, TimeUnit.MILLISECONDS)).isEqualTo("done");
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldWaitAtLeastHalfOfBackoffBeforeRetrying() {
+        FailingOperation operation = new FailingOperation(1, new ConcurrentModificationException(null));
+
+        RetryPolicy.of(policyName(), 5, 200, 200).execute(operation).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(operation.delayBefore(2)).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void shouldNotWaitLongerThanMaxBackoff() {
+        FailingOperation operation = new FailingOperation(3, new ConcurrentModificationException(null));
+
+        RetryPolicy.of(policyName(), 5, 2000, 50).execute(operation).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        // Without the limit, the first retry alone would wait at least one second
+        for (int attempt = 2; attempt <= 4; attempt++) {
+            assertThat(operation.delayBefore(attempt)).isLessThan(1000);
+        }
+    }
+
+    private static String policyName() {
+        return "test.retries" + POLICIES.incrementAndGet();
+    }
+
+    /**
+     * Fails the given amount of attempts with the provided error, then succeeds,
+     * recording the number and start time of each attempt.
+     */
+    private static class FailingOperation implements F.Function<Integer, F.Promise<String>> {
+        private final int failingAttempts;
+        private final Throwable error;
+        private final List<Integer> attempts = Collections.synchronizedList(new ArrayList<Integer>());
+        private final List<Long> startTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+        private FailingOperation(final int failingAttempts, final Throwable error) {
+            this.failingAttempts = failingAttempts;
+            this.error = error;
+        }
+
+        @Override
+        public F.Promise<String> apply(final Integer attempt) throws Throwable {
+            attempts.add(attempt);
+            startTimes.add(System.currentTimeMillis());
+            if (attempt <= failingAttempts) {
+                return F.Promise.throwing(error);
+            }
+            return F.Promise.pure("done after " + attempt + " attempts");
+        }
+
+        private long delayBefore(final int attempt) {
+            return startTimes.get(attempt - 1) - startTimes.get(attempt - 2);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package utils;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import play.GlobalSettings;
+import play.libs.F;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.running;
+
+public class ScheduledSnapshotTest {
+    private static final long TIMEOUT = 2000;
+    private static final long NEVER = 60 * 60 * 1000;
+    private static final AtomicInteger SNAPSHOTS = new AtomicInteger();
+
+    @Test
+    public void shouldLoadOnFirstReadOnly() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                String name = snapshotName();
+                SequenceLoader loader = new SequenceLoader();
+                ScheduledSnapshot<Integer> snapshot = ScheduledSnapshot.of(name, NEVER, loader);
+
+                assertThat(loader.loads.get()).isEqualTo(0);
+                assertThat(snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS)).isEqualTo(1);
+                assertThat(snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS)).isEqualTo(1);
+                assertThat(snapshot.latest()).isEqualTo(Optional.of(1));
+                assertThat(loader.loads.get()).isEqualTo(1);
+                assertThat(Metrics.get(name + ".refreshes")).isEqualTo(1);
+            }
+        });
+    }
+
+    @Test
+    public void shouldNotWaitForFirstLoadWhenReadingLatest() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                SequenceLoader loader = new SequenceLoader();
+                loader.delayInMillis = 200;
+                ScheduledSnapshot<Integer> snapshot = ScheduledSnapshot.of(snapshotName(), NEVER, loader);
+
+                assertThat(snapshot.latest()).isEqualTo(Optional.<Integer>absent());
+                assertThat(snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS)).isEqualTo(1);
+                assertThat(snapshot.latest()).isEqualTo(Optional.of(1));
+                assertThat(loader.loads.get()).isEqualTo(1);
+            }
+        });
+    }
+
+    @Test
+    public void shouldReplaceValueOnceRefreshed() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                SequenceLoader loader = new SequenceLoader();
+                ScheduledSnapshot<Integer> snapshot = ScheduledSnapshot.of(snapshotName(), NEVER, loader);
+                snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+                snapshot.refresh();
+
+                waitForValue(snapshot, 2);
+                assertThat(snapshot.latest()).isEqualTo(Optional.of(2));
+            }
+        });
+    }
+
+    @Test
+    public void shouldKeepPreviousValueWhenRefreshFails() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                String name = snapshotName();
+                SequenceLoader loader = new SequenceLoader();
+                ScheduledSnapshot<Integer> snapshot = ScheduledSnapshot.of(name, NEVER, loader);
+                snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS);
+                loader.failures.add(new IllegalStateException("backend unavailable"));
+
+                snapshot.refresh();
+
+                waitForMetric(name + ".failures", 1);
+                assertThat(snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS)).isEqualTo(1);
+                assertThat(snapshot.latest()).isEqualTo(Optional.of(1));
+            }
+        });
+    }
+
+    @Test
+    public void shouldLoadAgainAfterFailedFirstLoad() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                String name = snapshotName();
+                SequenceLoader loader = new SequenceLoader();
+                loader.failures.add(new IllegalStateException("backend unavailable"));
+                ScheduledSnapshot<Integer> snapshot = ScheduledSnapshot.of(name, NEVER, loader);
+
+                try {
+                    snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS);
+                    fail("The first load should have failed");
+                } catch (IllegalStateException e) {
+                    assertThat(e.getMessage()).isEqualTo("backend unavailable");
+                }
+
+                waitForMetric(name + ".failures", 1);
+                waitForValue(snapshot, 1);
+                assertThat(loader.loads.get()).isEqualTo(2);
+            }
+        });
+    }
+
+    @Test
+    public void shouldRefreshPeriodically() {
+        running(fakeApplication(new GlobalSettings()), new Runnable() {
+            @Override
+            public void run() {
+                String name = snapshotName();
+                SequenceLoader loader = new SequenceLoader();
+                ScheduledSnapshot<Integer> snapshot = ScheduledSnapshot.of(name, 50, loader);
+                snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+                waitForMetric(name + ".refreshes", 3);
+                assertThat(snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(2);
+            }
+        });
+    }
+
+    private static String snapshotName() {
+        return "test.snapshot" + SNAPSHOTS.incrementAndGet();
+    }
+
+    private static void waitForValue(final ScheduledSnapshot<Integer> snapshot, final int value) {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        Integer current = null;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                current = snapshot.get().get(TIMEOUT, TimeUnit.MILLISECONDS);
+                if (current == value) {
+                    return;
+                }
+            } catch (IllegalStateException e) {
+                current = null;
+            }
+            Thread.yield();
+        }
+        assertThat(current).isEqualTo(value);
+    }
+
+    private static void waitForMetric(final String name, final long value) {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (Metrics.get(name) < value && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertThat(Metrics.get(name)).isGreaterThanOrEqualTo(value);
+    }
+
+    /**
+     * Loads 1, 2, 3... on each load, unless a failure was queued for the load.
+     */
+    private static class SequenceLoader implements F.Function0<F.Promise<Integer>> {
+        private final AtomicInteger loads = new AtomicInteger();
+        private final AtomicInteger values = new AtomicInteger();
+        private final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        private volatile long delayInMillis = 0;
+
+        @Override
+        public F.Promise<Integer> apply() throws Throwable {
+            loads.incrementAndGet();
+            final Throwable failure = failures.poll();
+            if (failure != null) {
+                return F.Promise.throwing(failure);
+            }
+            final int value = values.incrementAndGet();
+            if (delayInMillis > 0) {
+                return F.Promise.delayed(new F.Function0<Integer>() {
+                    @Override
+                    public Integer apply() throws Throwable {
+                        return value;
+                    }
+                }, delayInMillis, TimeUnit.MILLISECONDS);
+            }
+            return F.Promise.pure(value);
+        }
+    }
+}